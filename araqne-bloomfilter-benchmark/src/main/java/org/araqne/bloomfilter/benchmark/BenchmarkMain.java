@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with usual JMH command line options, but writes results to
+ * target/jmh-result.json unless -rf or -rff is given, so that results of
+ * different revisions can be compared.
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmd);
+		if (!cmd.getResultFormat().hasValue())
+			builder.resultFormat(ResultFormatType.JSON);
+		if (!cmd.getResult().hasValue())
+			builder.result("target/jmh-result.json");
+
+		new Runner(builder.build()).run();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.bloomfilter.BloomFilter2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * add and contains of {@link BloomFilter2} at 0.1% error rate. Capacities give
+ * about 1.8KB (L1), 180KB (L2), 1.8MB (L3) and 180MB (memory) bitmaps. Setup
+ * of the largest one adds 100 million keys and takes a while.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BloomFilter2Benchmark {
+	@Param({ "1000", "100000", "1000000", "100000000" })
+	public int capacity;
+
+	private BloomFilter2<String> filter;
+	private String[] hits;
+	private String[] misses;
+	private int next;
+
+	@Setup
+	public void setup() {
+		filter = new BloomFilter2<String>(0.001, capacity);
+		hits = Keys.pool("key", capacity);
+		misses = Keys.pool("miss");
+
+		// filled to capacity, so that hits and misses see the designed fill ratio
+		for (int i = 0; i < capacity; i++)
+			filter.add("key" + i);
+	}
+
+	@Benchmark
+	public void add() {
+		filter.add(hits[next++ & Keys.POOL_MASK]);
+	}
+
+	@Benchmark
+	public boolean containsHit() {
+		return filter.contains(hits[next++ & Keys.POOL_MASK]);
+	}
+
+	@Benchmark
+	public boolean containsMiss() {
+		return filter.contains(misses[next++ & Keys.POOL_MASK]);
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.bloomfilter.FastHashFunction;
+import org.araqne.bloomfilter.GeneralHashFunction;
+import org.araqne.bloomfilter.HashFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * every {@link GeneralHashFunction} entry, and 64-bit hashes of
+ * {@link FastHashFunction} for comparison
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashFunctionBenchmark {
+	@Param({ "RSHash", "JSHash", "PJWHash", "ELFHash", "BKDRHash", "SDBMHash", "DJBHash", "BPHash", "FNVHash",
+			"APHash" })
+	public String function;
+
+	@Param({ "16", "256" })
+	public int length;
+
+	private HashFunction<String> hash;
+	private String[] keys;
+	private int next;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws Exception {
+		hash = (HashFunction<String>) GeneralHashFunction.class.getField(function).get(null);
+		keys = Keys.pool(length);
+	}
+
+	@Benchmark
+	public int general() {
+		return hash.hashCode(keys[next++ & Keys.POOL_MASK]);
+	}
+
+	@Benchmark
+	public long murmur3() {
+		return FastHashFunction.Murmur3.hashCode64(keys[next++ & Keys.POOL_MASK]);
+	}
+
+	@Benchmark
+	public long xxhash64() {
+		return FastHashFunction.XXHash64.hashCode64(keys[next++ & Keys.POOL_MASK]);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.bloomfilter.BloomFilter2;
+import org.araqne.bloomfilter.GeneralHashFunction;
+import org.araqne.bloomfilter.HashFunction;
+import org.araqne.bloomfilter.HashValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * cost of {@link HashValue} allocation compared with the allocation-free
+ * paths. Run with "-prof gc" to see allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashValueBenchmark {
+	private BloomFilter2<String> filter;
+	private HashFunction<String> first;
+	private HashFunction<String> second;
+	private String[] keys;
+	private int next;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() {
+		filter = new BloomFilter2<String>(0.001, 1000);
+		first = GeneralHashFunction.stringHashFunctions[2];
+		second = GeneralHashFunction.stringHashFunctions[1];
+		keys = Keys.pool("key");
+		for (String key : keys)
+			filter.add(key);
+	}
+
+	@Benchmark
+	public HashValue<String> newHashValue() {
+		return filter.getHashValue(keys[next++ & Keys.POOL_MASK]);
+	}
+
+	@Benchmark
+	public boolean containsHashValue() {
+		return filter.contains(filter.getHashValue(keys[next++ & Keys.POOL_MASK]));
+	}
+
+	@Benchmark
+	public boolean containsKey() {
+		return filter.contains(keys[next++ & Keys.POOL_MASK]);
+	}
+
+	@Benchmark
+	public boolean containsHashCodes() {
+		String key = keys[next++ & Keys.POOL_MASK];
+		return filter.contains(first.hashCode(key), second.hashCode(key));
+	}
+}
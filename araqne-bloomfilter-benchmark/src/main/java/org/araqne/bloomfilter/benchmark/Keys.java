@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter.benchmark;
+
+/**
+ * Key pools for benchmarks. Pool size is power of two so that the next key
+ * is selected by mask.
+ */
+class Keys {
+	static final int POOL_SIZE = 1 << 16;
+	static final int POOL_MASK = POOL_SIZE - 1;
+
+	static String[] pool(String prefix) {
+		return pool(prefix, POOL_SIZE);
+	}
+
+	/**
+	 * @return prefix + (i mod count) keys, so that a pool of filled keys
+	 *         never contains a key beyond the fill count
+	 */
+	static String[] pool(String prefix, int count) {
+		String[] keys = new String[POOL_SIZE];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = prefix + (i % count);
+		return keys;
+	}
+
+	static String[] pool(int length) {
+		String[] keys = new String[POOL_SIZE];
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < keys.length; i++) {
+			sb.setLength(0);
+			sb.append(i);
+			while (sb.length() < length)
+				sb.append((char) ('a' + sb.length() % 26));
+			sb.setLength(length);
+			keys[i] = sb.toString();
+		}
+		return keys;
+	}
+}
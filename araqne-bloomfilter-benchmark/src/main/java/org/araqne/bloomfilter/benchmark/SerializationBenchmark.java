@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.bloomfilter.BloomFilter;
+import org.araqne.bloomfilter.BloomFilter2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * save and load of in-memory streams. Divide stream length by the score for
+ * throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+	@Param({ "100000", "10000000" })
+	public int capacity;
+
+	private BloomFilter<String> filter;
+	private BloomFilter2<String> filter2;
+	private byte[] saved;
+	private byte[] saved2;
+	private ByteArrayOutputStream os;
+
+	@Setup
+	public void setup() throws IOException {
+		filter = new BloomFilter<String>(0.001, capacity);
+		filter2 = new BloomFilter2<String>(0.001, capacity);
+		for (int i = 0; i < capacity; i++) {
+			filter.add("key" + i);
+			filter2.add("key" + i);
+		}
+
+		os = new ByteArrayOutputStream((int) Math.max(filter.streamLength(), filter2.streamLength()));
+		filter.save(os);
+		saved = os.toByteArray();
+		os.reset();
+		filter2.save(os);
+		saved2 = os.toByteArray();
+	}
+
+	@Benchmark
+	public long saveBloomFilter() throws IOException {
+		os.reset();
+		return filter.save(os);
+	}
+
+	@Benchmark
+	public long saveBloomFilter2() throws IOException {
+		os.reset();
+		return filter2.save(os);
+	}
+
+	@Benchmark
+	public BloomFilter<String> loadBloomFilter() throws IOException {
+		BloomFilter<String> loaded = new BloomFilter<String>(0.001, 1);
+		loaded.load(new ByteArrayInputStream(saved));
+		return loaded;
+	}
+
+	@Benchmark
+	public BloomFilter2<String> loadBloomFilter2() throws IOException {
+		BloomFilter2<String> loaded = new BloomFilter2<String>(0.001, 1);
+		loaded.load(new ByteArrayInputStream(saved2));
+		return loaded;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe bitmap backed by 64-bit atomic words. Readers never block, and
+ * writers set bits with a CAS loop which is skipped when the bit is already
+ * set.
+ */
+public class AtomicBitmap extends Bitmap {
+	private final AtomicLongArray words;
+
+	public AtomicBitmap(int bits) {
+		super(bits, null);
+		this.words = new AtomicLongArray(wordCount(bits));
+	}
+
+	/**
+	 * copies the version 2 stream layout (big endian words) from the buffer
+	 */
+	public AtomicBitmap(int bits, ByteBuffer bb) {
+		this(Math.max(bits, bb.remaining() * 8));
+		ByteBuffer src = bb.duplicate();
+		int i = 0;
+		while (src.remaining() >= 8)
+			words.set(i++, src.getLong());
+	}
+
+	@Override
+	public ByteBuffer getBytes() {
+		ByteBuffer bb = ByteBuffer.allocate(getByteLength());
+		for (int i = 0; i < words.length(); i++)
+			bb.putLong(words.get(i));
+		bb.flip();
+		return bb;
+	}
+
+	@Override
+	public int length() {
+		return words.length() * 64;
+	}
+
+	@Override
+	public int getByteLength() {
+		return words.length() * 8;
+	}
+
+	@Override
+	public int getWordCount() {
+		return words.length();
+	}
+
+	@Override
+	public long getWord(int index) {
+		return words.get(index);
+	}
+
+	@Override
+	public void setWord(int index, long word) {
+		words.set(index, word);
+	}
+
+	@Override
+	public boolean get(int index) {
+		return (words.get(index >> 6) & (1L << index)) != 0;
+	}
+
+	@Override
+	public void set(int index) {
+		if (index < 0)
+			throw new IndexOutOfBoundsException("bitIndex < 0: " + index);
+
+		if (index >= bits)
+			throw new IndexOutOfBoundsException("bitIndex > max bits: " + index);
+
+		int i = index >> 6;
+		long mask = 1L << index;
+		long word = words.get(i);
+		while ((word & mask) == 0) {
+			if (words.compareAndSet(i, word, word | mask))
+				return;
+			word = words.get(i);
+		}
+	}
+
+	@Override
+	public long writeTo(WritableByteChannel channel) throws IOException {
+		return writeWords(channel);
+	}
+}
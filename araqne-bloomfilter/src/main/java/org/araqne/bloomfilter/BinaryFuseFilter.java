@@ -0,0 +1,392 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Immutable binary fuse filter (Graf and Lemire) with 8 or 16 bit
+ * fingerprints. It is built once from the final key set using {@link Builder},
+ * and a lookup xors exactly three fingerprints. False positive rate is about
+ * 2^-f for f bit fingerprints.
+ *
+ * 8 bit fingerprints take about 9.5 bits per key for 1/256 (0.39%) false
+ * positive rate. When the builder is given a lower error rate, 16 bit
+ * fingerprints are used, which take about 19 bits per key for 1/65536. This is
+ * more than 14.4 bits per key of a 0.1% {@link BloomFilter2}, but false
+ * positives are 65 times fewer and a lookup still reads only three
+ * fingerprints. Stream format is version 9.
+ */
+public class BinaryFuseFilter<T> {
+	private static final int ARITY = 3;
+	private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+	private static final int MAX_ATTEMPTS = 1000;
+
+	private int fingerprintBits;
+	private int fingerprintMask;
+	private int count;
+	private int segmentLength;
+	private int segmentLengthMask;
+	private int segmentCountLength;
+	private long seed;
+	private byte[] fingerprints;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+
+	@SuppressWarnings("unchecked")
+	public BinaryFuseFilter() {
+		this(GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	/**
+	 * creates empty filter for {@link #load(InputStream)}
+	 */
+	public BinaryFuseFilter(HashFunction<T> first, HashFunction<T> second) {
+		this.firstFunction = first;
+		this.secondFunction = second;
+		attach(new byte[0], 8, 0, 4, 0, 0);
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) {
+		if (count == 0)
+			return false;
+
+		long hash = hash(BlockedBloomFilter.mix(firstHashCode, secondHashCode), seed);
+		int h0 = getIndex0(hash);
+		int h1 = (h0 + segmentLength) ^ ((int) (hash >>> 18) & segmentLengthMask);
+		int h2 = (h0 + 2 * segmentLength) ^ ((int) hash & segmentLengthMask);
+		return (fingerprint(hash) ^ get(h0) ^ get(h1) ^ get(h2)) == 0;
+	}
+
+	public boolean contains(T key) {
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	/**
+	 * @return number of distinct keys
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public int getFingerprintBits() {
+		return fingerprintBits;
+	}
+
+	/**
+	 * @return fingerprint table. 16 bit fingerprints are big endian.
+	 */
+	public byte[] getFingerprints() {
+		return fingerprints;
+	}
+
+	public double getBitsPerKey() {
+		return count == 0 ? 0 : fingerprints.length * 8.0 / count;
+	}
+
+	public void load(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		int version = -dis.readInt();
+		if (version != 9)
+			throw new IllegalArgumentException("unsupported version: " + version);
+
+		int fingerprintBits = dis.readInt();
+		int count = dis.readInt();
+		int segmentLength = dis.readInt();
+		int segmentCountLength = dis.readInt();
+		int arrayLength = dis.readInt();
+		long seed = dis.readLong();
+		if (fingerprintBits != 8 && fingerprintBits != 16)
+			throw new IllegalArgumentException("invalid fingerprint bits: " + fingerprintBits);
+		if (Integer.bitCount(segmentLength) != 1 || arrayLength != segmentCountLength + (ARITY - 1) * segmentLength)
+			throw new IllegalArgumentException("invalid binary fuse filter layout: " + segmentLength + ", "
+					+ segmentCountLength + ", " + arrayLength);
+
+		byte[] b = new byte[arrayLength * (fingerprintBits / 8)];
+		dis.readFully(b);
+		attach(b, fingerprintBits, count, segmentLength, segmentCountLength, seed);
+	}
+
+	private void attach(byte[] fingerprints, int fingerprintBits, int count, int segmentLength, int segmentCountLength,
+			long seed) {
+		this.fingerprints = fingerprints;
+		this.fingerprintBits = fingerprintBits;
+		this.fingerprintMask = (1 << fingerprintBits) - 1;
+		this.count = count;
+		this.segmentLength = segmentLength;
+		this.segmentLengthMask = segmentLength - 1;
+		this.segmentCountLength = segmentCountLength;
+		this.seed = seed;
+	}
+
+	public long streamLength() {
+		return fingerprints.length + getStreamHeaderLength();
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 6 + 8;
+	}
+
+	public long save(OutputStream os) throws IOException {
+		ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+		hdr.putInt(-9); // version
+		hdr.putInt(fingerprintBits);
+		hdr.putInt(count);
+		hdr.putInt(segmentLength);
+		hdr.putInt(segmentCountLength);
+		hdr.putInt(fingerprints.length / (fingerprintBits / 8));
+		hdr.putLong(seed);
+		hdr.flip();
+
+		WritableByteChannel newChannel = Channels.newChannel(os);
+		newChannel.write(hdr);
+
+		ByteBuffer bb = ByteBuffer.wrap(fingerprints);
+		long wrote = 0;
+		while (bb.hasRemaining())
+			wrote += newChannel.write(bb);
+		return wrote + getStreamHeaderLength();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BinaryFuseFilter-[%d KB, %d keys, %d bit fingerprints (%s, %s)]",
+				this.fingerprints.length / 1024, this.count, this.fingerprintBits, this.firstFunction.toString(),
+				this.secondFunction.toString());
+	}
+
+	private int getIndex0(long hash) {
+		return (int) (((hash >>> 32) * segmentCountLength) >>> 32);
+	}
+
+	private int getIndex(long hash, int i) {
+		int h = getIndex0(hash) + i * segmentLength;
+		if (i == 1)
+			h ^= (int) (hash >>> 18) & segmentLengthMask;
+		else if (i == 2)
+			h ^= (int) hash & segmentLengthMask;
+		return h;
+	}
+
+	private static long hash(long key, long seed) {
+		return FastHashFunction.fmix64(key + seed);
+	}
+
+	private int fingerprint(long hash) {
+		return (int) (hash ^ (hash >>> 32)) & fingerprintMask;
+	}
+
+	private int get(int i) {
+		if (fingerprintBits == 8)
+			return fingerprints[i] & 0xff;
+		return ((fingerprints[i << 1] & 0xff) << 8) | (fingerprints[(i << 1) + 1] & 0xff);
+	}
+
+	private void set(int i, int fingerprint) {
+		if (fingerprintBits == 8) {
+			fingerprints[i] = (byte) fingerprint;
+		} else {
+			fingerprints[i << 1] = (byte) (fingerprint >> 8);
+			fingerprints[(i << 1) + 1] = (byte) fingerprint;
+		}
+	}
+
+	/**
+	 * solves the fingerprint table for distinct keys by peeling the 3-partite
+	 * hypergraph, retrying with another seed if a cycle remains
+	 */
+	private void populate(long[] keys, int size, int fingerprintBits) {
+		int segmentLength = size == 0 ? 4 : 1 << (int) Math.floor(Math.log(size) / Math.log(3.33) + 2.25);
+		segmentLength = Math.min(segmentLength, MAX_SEGMENT_LENGTH);
+
+		double sizeFactor = size <= 1 ? 0 : Math.max(1.125, 0.875 + 0.25 * Math.log(1000000) / Math.log(size));
+		long capacity = Math.round(size * sizeFactor);
+		long segmentCount = (capacity + segmentLength - 1) / segmentLength - (ARITY - 1);
+		if (segmentCount < 1)
+			segmentCount = 1;
+
+		long arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+		if (arrayLength * (fingerprintBits / 8) > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("too many keys for binary fuse filter: " + size);
+
+		byte[] fingerprints = new byte[(int) arrayLength * (fingerprintBits / 8)];
+		attach(fingerprints, fingerprintBits, size, segmentLength, (int) (segmentCount * segmentLength), 0);
+		if (size == 0)
+			return;
+
+		int[] t2count = new int[(int) arrayLength];
+		long[] t2hash = new long[(int) arrayLength];
+		int[] alone = new int[(int) arrayLength];
+		long[] reverseOrder = new long[size];
+		byte[] reverseH = new byte[size];
+		int[] h012 = new int[5];
+
+		long seed = 0x9e3779b97f4a7c15L;
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			seed = FastHashFunction.fmix64(seed + attempt);
+			this.seed = seed;
+			Arrays.fill(t2count, 0);
+			Arrays.fill(t2hash, 0);
+
+			// low 2 bits of t2count keep xor of slot numbers of remaining keys
+			for (int i = 0; i < size; i++) {
+				long hash = hash(keys[i], seed);
+				for (int j = 0; j < ARITY; j++) {
+					int h = getIndex(hash, j);
+					t2count[h] += 4;
+					t2count[h] ^= j;
+					t2hash[h] ^= hash;
+				}
+			}
+
+			int queueSize = 0;
+			for (int i = 0; i < t2count.length; i++)
+				if ((t2count[i] >> 2) == 1)
+					alone[queueSize++] = i;
+
+			int stackSize = 0;
+			while (queueSize > 0) {
+				int index = alone[--queueSize];
+				if ((t2count[index] >> 2) != 1)
+					continue;
+
+				long hash = t2hash[index];
+				int found = t2count[index] & 3;
+				reverseH[stackSize] = (byte) found;
+				reverseOrder[stackSize] = hash;
+				stackSize++;
+
+				h012[0] = getIndex(hash, 0);
+				h012[1] = getIndex(hash, 1);
+				h012[2] = getIndex(hash, 2);
+				h012[3] = h012[0];
+				h012[4] = h012[1];
+
+				for (int j = 1; j < ARITY; j++) {
+					int other = h012[found + j];
+					if ((t2count[other] >> 2) == 2)
+						alone[queueSize++] = other;
+					t2count[other] -= 4;
+					t2count[other] ^= (found + j) % ARITY;
+					t2hash[other] ^= hash;
+				}
+			}
+
+			if (stackSize < size)
+				continue;
+
+			// assign in reverse peeling order, so each key owns its last slot
+			for (int i = size - 1; i >= 0; i--) {
+				long hash = reverseOrder[i];
+				int found = reverseH[i];
+				h012[0] = getIndex(hash, 0);
+				h012[1] = getIndex(hash, 1);
+				h012[2] = getIndex(hash, 2);
+				h012[3] = h012[0];
+				h012[4] = h012[1];
+				set(h012[found], fingerprint(hash) ^ get(h012[found + 1]) ^ get(h012[found + 2]));
+			}
+			return;
+		}
+
+		throw new IllegalStateException("cannot build binary fuse filter after " + MAX_ATTEMPTS + " attempts");
+	}
+
+	/**
+	 * collects keys of a sealed key set. Duplicate keys are allowed. Without
+	 * error rate, 8 bit fingerprints are used.
+	 */
+	public static class Builder<T> {
+		private final HashFunction<T> firstFunction;
+		private final HashFunction<T> secondFunction;
+		private final int fingerprintBits;
+		private long[] keys = new long[1024];
+		private int size;
+
+		@SuppressWarnings("unchecked")
+		public Builder() {
+			this(GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+		}
+
+		@SuppressWarnings("unchecked")
+		public Builder(double errorRate) {
+			this(errorRate, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+		}
+
+		public Builder(HashFunction<T> first, HashFunction<T> second) {
+			this(1 / 256.0, first, second);
+		}
+
+		/**
+		 * uses 16 bit fingerprints if 8 bits cannot meet the error rate
+		 */
+		public Builder(double errorRate, HashFunction<T> first, HashFunction<T> second) {
+			this.firstFunction = first;
+			this.secondFunction = second;
+			this.fingerprintBits = errorRate >= 1 / 256.0 ? 8 : 16;
+		}
+
+		public Builder<T> add(HashValue<T> v) {
+			return add(v.getFirstHashCode(), v.getSecondHashCode());
+		}
+
+		public Builder<T> add(int firstHashCode, int secondHashCode) {
+			if (size == keys.length)
+				keys = Arrays.copyOf(keys, size * 2);
+			keys[size++] = BlockedBloomFilter.mix(firstHashCode, secondHashCode);
+			return this;
+		}
+
+		public Builder<T> add(T key) {
+			return add(firstFunction.hashCode(key), secondFunction.hashCode(key));
+		}
+
+		public Builder<T> addAll(Iterable<T> keys) {
+			for (T key : keys)
+				add(key);
+			return this;
+		}
+
+		public BinaryFuseFilter<T> build() {
+			// sorting removes duplicates, which would never peel
+			long[] distinct = Arrays.copyOf(keys, size);
+			Arrays.sort(distinct);
+			int n = 0;
+			for (int i = 0; i < distinct.length; i++)
+				if (i == 0 || distinct[i] != distinct[i - 1])
+					distinct[n++] = distinct[i];
+
+			BinaryFuseFilter<T> filter = new BinaryFuseFilter<T>(firstFunction, secondFunction);
+			filter.populate(distinct, n, fingerprintBits);
+			return filter;
+		}
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Transposed bitmaps of many segment filters which share bit length, hash
+ * count and hash functions. Row i holds bit i of every segment, so a key is
+ * checked against all segments by ANDing k rows, and the result is the set of
+ * candidate segment ids. Rows grow by doubling when segments are appended.
+ * Stream format is version 10.
+ */
+public class BitSlicedIndex<T> {
+	private int numOfBits;
+	private int numOfHashFunction;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private int segmentCount;
+	private int rowWords;
+	private long[] rows;
+
+	@SuppressWarnings("unchecked")
+	public BitSlicedIndex() {
+		this(GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	@SuppressWarnings("unchecked")
+	public BitSlicedIndex(long capacity) {
+		this(0.001, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public BitSlicedIndex(HashFunction<T> first, HashFunction<T> second) {
+		this(0.001, 1000000L, first, second);
+	}
+
+	/**
+	 * @param capacity
+	 *            keys per segment
+	 */
+	public BitSlicedIndex(double errorRate, long capacity, HashFunction<T> first, HashFunction<T> second) {
+		BloomFilter2.OptimumFinder opt = new BloomFilter2.OptimumFinder(errorRate, capacity);
+		this.firstFunction = first;
+		this.secondFunction = second;
+		attach(opt.numOfBits, opt.numOfHashFunction, 0, 1, new long[opt.numOfBits]);
+	}
+
+	@SuppressWarnings("unchecked")
+	public BitSlicedIndex(double errorRate, int capacity) {
+		this(errorRate, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	/**
+	 * appends an empty segment
+	 *
+	 * @return segment id
+	 */
+	public int addSegment() {
+		if (segmentCount == rowWords * 64)
+			grow(rowWords * 2);
+		return segmentCount++;
+	}
+
+	/**
+	 * appends a segment with bits of the filter, which should have same bit
+	 * length and hash count
+	 *
+	 * @return segment id
+	 */
+	public int addSegment(BloomFilter2<T> filter) {
+		if (filter.getNumOfBits() != numOfBits || filter.getHashFuncCount() != numOfHashFunction)
+			throw new IllegalArgumentException("incompatible bloom filter: " + filter + ", expected " + numOfBits
+					+ " bits and " + numOfHashFunction + " hash functions");
+
+		int segment = addSegment();
+		int segmentWord = segment >>> 6;
+		long mask = 1L << segment;
+		Bitmap bitmap = filter.getBitmap();
+		int count = Math.min(Bitmap.wordCount(numOfBits), bitmap.getWordCount());
+		for (int i = 0; i < count; i++) {
+			long word = bitmap.getWord(i);
+			while (word != 0) {
+				int bit = (i << 6) + Long.numberOfTrailingZeros(word);
+				rows[bit * rowWords + segmentWord] |= mask;
+				word &= word - 1;
+			}
+		}
+		return segment;
+	}
+
+	public void add(int segment, HashValue<T> v) {
+		add(segment, v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public void add(int segment, int firstHashCode, int secondHashCode) {
+		if (segment < 0 || segment >= segmentCount)
+			throw new IndexOutOfBoundsException("invalid segment: " + segment + ", count " + segmentCount);
+
+		int segmentWord = segment >>> 6;
+		long mask = 1L << segment;
+		for (int i = 0; i < numOfHashFunction; i++) {
+			int index = getIndex(firstHashCode, secondHashCode, i);
+			rows[index * rowWords + segmentWord] |= mask;
+		}
+	}
+
+	public void add(int segment, T key) {
+		add(segment, firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public int[] query(HashValue<T> v) {
+		return query(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	/**
+	 * @return ids of segments which might contain the key, in ascending order
+	 */
+	public int[] query(int firstHashCode, int secondHashCode) {
+		long[] candidates = new long[Bitmap.wordCount(segmentCount)];
+		int count = query(firstHashCode, secondHashCode, candidates);
+		int[] segments = new int[count];
+		int n = 0;
+		for (int w = 0; w < candidates.length; w++) {
+			long word = candidates[w];
+			while (word != 0) {
+				segments[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+			}
+		}
+		return segments;
+	}
+
+	public int[] query(T key) {
+		return query(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	/**
+	 * writes candidate segment bitmap into candidates, which should have at
+	 * least (segment count + 63) / 64 words
+	 *
+	 * @return number of candidate segments
+	 */
+	public int query(int firstHashCode, int secondHashCode, long[] candidates) {
+		int words = Bitmap.wordCount(segmentCount);
+		if (numOfBits == 0 || words == 0) {
+			Arrays.fill(candidates, 0, words, 0);
+			return 0;
+		}
+
+		int base = getIndex(firstHashCode, secondHashCode, 0) * rowWords;
+		System.arraycopy(rows, base, candidates, 0, words);
+		for (int i = 1; i < numOfHashFunction; i++) {
+			base = getIndex(firstHashCode, secondHashCode, i) * rowWords;
+			long any = 0;
+			for (int w = 0; w < words; w++) {
+				candidates[w] &= rows[base + w];
+				any |= candidates[w];
+			}
+
+			if (any == 0)
+				return 0;
+		}
+
+		int count = 0;
+		for (int w = 0; w < words; w++)
+			count += Long.bitCount(candidates[w]);
+		return count;
+	}
+
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	public int getNumOfBits() {
+		return numOfBits;
+	}
+
+	public int getHashFuncCount() {
+		return numOfHashFunction;
+	}
+
+	public void load(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		int version = -dis.readInt();
+		if (version != 10)
+			throw new IllegalArgumentException("unsupported version: " + version);
+
+		int numOfHashFunc = dis.readInt();
+		int numOfBits = dis.readInt();
+		int segmentCount = dis.readInt();
+		int rowWords = Math.max(1, Bitmap.wordCount(segmentCount));
+		long length = (long) numOfBits * rowWords;
+		if (length > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("too large bit sliced index: " + numOfBits + " bits, " + segmentCount
+					+ " segments");
+
+		long[] rows = new long[(int) length];
+		byte[] chunk = new byte[Bitmap.CHUNK_SIZE];
+		LongBuffer longs = ByteBuffer.wrap(chunk).asLongBuffer();
+		for (int offset = 0; offset < rows.length;) {
+			int n = Math.min(longs.capacity(), rows.length - offset);
+			dis.readFully(chunk, 0, n * 8);
+			longs.clear();
+			longs.get(rows, offset, n);
+			offset += n;
+		}
+
+		attach(numOfBits, numOfHashFunc, segmentCount, rowWords, rows);
+	}
+
+	private void attach(int numOfBits, int numOfHash, int segmentCount, int rowWords, long[] rows) {
+		this.numOfBits = numOfBits;
+		this.numOfHashFunction = numOfHash;
+		this.segmentCount = segmentCount;
+		this.rowWords = rowWords;
+		this.rows = rows;
+	}
+
+	public long streamLength() {
+		return (long) numOfBits * Math.max(1, Bitmap.wordCount(segmentCount)) * 8 + getStreamHeaderLength();
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 4;
+	}
+
+	/**
+	 * writes rows trimmed to segment count, so unused capacity is not saved
+	 */
+	public long save(OutputStream os) throws IOException {
+		ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+		hdr.putInt(-10); // version
+		hdr.putInt(numOfHashFunction);
+		hdr.putInt(numOfBits);
+		hdr.putInt(segmentCount);
+		hdr.flip();
+
+		WritableByteChannel newChannel = Channels.newChannel(os);
+		newChannel.write(hdr);
+
+		int words = Math.max(1, Bitmap.wordCount(segmentCount));
+		ByteBuffer chunk = ByteBuffer.allocate(Math.max(Bitmap.CHUNK_SIZE, words * 8));
+		LongBuffer longs = chunk.asLongBuffer();
+		long wrote = 0;
+		for (int row = 0; row < numOfBits;) {
+			longs.clear();
+			while (row < numOfBits && longs.remaining() >= words) {
+				longs.put(rows, row * rowWords, words);
+				row++;
+			}
+
+			chunk.clear();
+			chunk.limit(longs.position() * 8);
+			while (chunk.hasRemaining())
+				wrote += newChannel.write(chunk);
+		}
+		return wrote + getStreamHeaderLength();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BitSlicedIndex-[%d segments, %d bits, %d hashFunctions (%s, %s)]", this.segmentCount,
+				this.numOfBits, this.numOfHashFunction, this.firstFunction.toString(), this.secondFunction.toString());
+	}
+
+	private void grow(int newRowWords) {
+		long length = (long) numOfBits * newRowWords;
+		if (length > Integer.MAX_VALUE)
+			throw new IllegalStateException("too many segments: " + segmentCount);
+
+		long[] grown = new long[(int) length];
+		for (int row = 0; row < numOfBits; row++)
+			System.arraycopy(rows, row * rowWords, grown, row * newRowWords, rowWords);
+		this.rows = grown;
+		this.rowWords = newRowWords;
+	}
+
+	private int getIndex(int firstHashCode, int secondHashCode, int i) {
+		int index = (firstHashCode + (i * secondHashCode)) % this.numOfBits;
+		return (index < 0) ? -index : index;
+	}
+}
@@ -15,10 +15,16 @@
  */
 package org.araqne.bloomfilter;
 
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
 
 public class Bitmap {
-	private int bits;
+	static final int CHUNK_SIZE = 8192;
+
+	protected int bits;
 	private ByteBuffer bb;
 
 	public Bitmap(int bits) {
@@ -47,6 +53,23 @@ public class Bitmap {
 		return bb.capacity();
 	}
 
+	public int getWordCount() {
+		return bb.capacity() / 8;
+	}
+
+	/**
+	 * returns the 64-bit word in the same layout which BitSet.toLongArray()
+	 * uses, regardless of the byte order of the backing buffer
+	 */
+	public long getWord(int index) {
+		long word = bb.getLong(index << 3);
+		return bb.order() == ByteOrder.BIG_ENDIAN ? word : Long.reverseBytes(word);
+	}
+
+	public void setWord(int index, long word) {
+		bb.putLong(index << 3, bb.order() == ByteOrder.BIG_ENDIAN ? word : Long.reverseBytes(word));
+	}
+
 	public boolean get(int index) {
 		int l = index >> 6;
 		int p = (l << 3) + (7 - ((index >> 3) & 7));
@@ -68,4 +91,84 @@ public class Bitmap {
 		byte mask = (byte) (1 << m);
 		bb.put(p, (byte) (bb.get(p) | mask));
 	}
+
+	/**
+	 * writes whole bitmap in version 2 stream layout without touching the
+	 * position of the backing buffer
+	 */
+	public long writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer bytes = bb.duplicate();
+		bytes.clear();
+		return channel.write(bytes);
+	}
+
+	/**
+	 * converts words to big endian bytes through a small reusable chunk
+	 */
+	protected long writeWords(WritableByteChannel channel) throws IOException {
+		long wrote = 0;
+		ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		int count = getWordCount();
+		for (int i = 0; i < count; i++) {
+			chunk.putLong(getWord(i));
+			if (!chunk.hasRemaining() || i == count - 1) {
+				chunk.flip();
+				while (chunk.hasRemaining())
+					wrote += channel.write(chunk);
+				chunk.clear();
+			}
+		}
+		return wrote;
+	}
+
+	/**
+	 * reads at most count big endian words. short stream is allowed since
+	 * BitSet based filter omits trailing zero words.
+	 */
+	void readWords(DataInputStream dis, int count) throws IOException {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		ByteBuffer bb = ByteBuffer.wrap(chunk);
+		int i = 0;
+		count = Math.min(count, getWordCount());
+		while (i < count) {
+			int len = Math.min(chunk.length, (count - i) * 8);
+			int read = readChunk(dis, chunk, len);
+
+			bb.clear();
+			bb.limit(read);
+			while (bb.hasRemaining())
+				setWord(i++, bb.getLong());
+
+			if (read < len)
+				return;
+		}
+	}
+
+	/**
+	 * reads up to len bytes, and zero fills the last partial word so that
+	 * bytes which arrived before end of stream are kept.
+	 *
+	 * @return read bytes rounded up to word boundary
+	 */
+	static int readChunk(DataInputStream dis, byte[] chunk, int len) throws IOException {
+		int read = 0;
+		while (read < len) {
+			int n = dis.read(chunk, read, len - read);
+			if (n < 0)
+				break;
+			read += n;
+		}
+
+		int aligned = (read + 7) & ~7;
+		for (int i = read; i < aligned; i++)
+			chunk[i] = 0;
+		return aligned;
+	}
+
+	static int wordCount(int bits) {
+		int count = bits >> 6;
+		if (bits % 64 > 0)
+			count++;
+		return count;
+	}
 }
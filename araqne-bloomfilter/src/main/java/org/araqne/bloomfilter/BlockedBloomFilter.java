@@ -0,0 +1,256 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Cache-line-blocked bloom filter. The hash value selects one 512-bit (64
+ * byte) block and all probes of a key fall in that block, so a lookup
+ * costs one memory miss instead of one per hash function. Keys are not
+ * spread evenly over blocks, so the filter needs slightly more bits than
+ * {@link BloomFilter2} for the same error rate; {@link OptimumFinder} sizes it
+ * accordingly.
+ */
+public class BlockedBloomFilter<T> {
+	private static final int BLOCK_BITS = 512;
+	private static final int BLOCK_WORDS = BLOCK_BITS / 64;
+
+	// i * h2 progression modulo 512 clusters badly, so each probe takes the
+	// top 9 bits of a multiplicative sequence instead
+	private static final long STEP = 0x9e3779b97f4a7c15L;
+
+	private int numOfBits;
+	private int numOfBlocks;
+	private int numOfHashFunction;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private LongBitmap bitmap;
+
+	@SuppressWarnings("unchecked")
+	public BlockedBloomFilter() {
+		this(GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	@SuppressWarnings("unchecked")
+	public BlockedBloomFilter(long capacity) {
+		this(0.001, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public BlockedBloomFilter(HashFunction<T> first, HashFunction<T> second) {
+		this(0.001, 1000000L, first, second);
+	}
+
+	public BlockedBloomFilter(double errorRate, long capacity, HashFunction<T> first, HashFunction<T> second) {
+		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
+		this.firstFunction = first;
+		this.secondFunction = second;
+		attach(new LongBitmap(opt.numOfBlocks * BLOCK_BITS), opt.numOfBlocks * BLOCK_BITS, opt.numOfHashFunction);
+	}
+
+	@SuppressWarnings("unchecked")
+	public BlockedBloomFilter(double errorRate, int capacity) {
+		this(errorRate, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	public void add(HashValue<T> v) {
+		add(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public void add(int firstHashCode, int secondHashCode) {
+		long[] words = bitmap.getWords();
+		long h = mix(firstHashCode, secondHashCode);
+		int base = getBlock(h) * BLOCK_WORDS;
+		for (int i = 0; i < numOfHashFunction; i++) {
+			h *= STEP;
+			int p = (int) (h >>> 55);
+			words[base + (p >> 6)] |= 1L << p;
+		}
+	}
+
+	public void add(T key) {
+		add(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) {
+		if (numOfBits == 0)
+			return false;
+
+		long[] words = bitmap.getWords();
+		long h = mix(firstHashCode, secondHashCode);
+		int base = getBlock(h) * BLOCK_WORDS;
+		for (int i = 0; i < numOfHashFunction; i++) {
+			h *= STEP;
+			int p = (int) (h >>> 55);
+			if ((words[base + (p >> 6)] & (1L << p)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	public boolean contains(T key) {
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public LongBitmap getBitmap() {
+		return bitmap;
+	}
+
+	public void load(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		int version = -dis.readInt();
+		if (version != 3)
+			throw new IllegalArgumentException("unsupported version: " + version);
+
+		int numOfHashFunc = dis.readInt();
+		int numOfBits = dis.readInt();
+		int streamLength = dis.readInt();
+		if (numOfBits % BLOCK_BITS != 0)
+			throw new IllegalArgumentException("invalid block filter length: " + numOfBits);
+
+		LongBitmap bm = new LongBitmap(numOfBits);
+		bm.readWords(dis, Bitmap.wordCount(streamLength));
+		this.attach(bm, numOfBits, numOfHashFunc);
+	}
+
+	private void attach(LongBitmap bm, int numOfBits, int numOfHash) {
+		this.bitmap = bm;
+		this.numOfBits = numOfBits;
+		this.numOfBlocks = numOfBits / BLOCK_BITS;
+		this.numOfHashFunction = numOfHash;
+	}
+
+	public long streamLength() {
+		return bitmap.getByteLength() + getStreamHeaderLength();
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 4;
+	}
+
+	public long save(OutputStream os) throws IOException {
+		ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+		hdr.putInt(-3); // version
+		hdr.putInt(numOfHashFunction);
+		hdr.putInt(numOfBits);
+		hdr.putInt(bitmap.length());
+		hdr.flip();
+
+		WritableByteChannel newChannel = Channels.newChannel(os);
+		newChannel.write(hdr);
+		long wrote = bitmap.writeTo(newChannel);
+		return wrote + getStreamHeaderLength();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BlockedBloomFilter-[%d KB, %d hashFunctions (%s, %s)]", this.numOfBits / 8 / 1024,
+				this.numOfHashFunction, this.firstFunction.toString(), this.secondFunction.toString());
+	}
+
+	/**
+	 * upper half selects the block
+	 */
+	private int getBlock(long h) {
+		return (int) (((h >>> 32) * numOfBlocks) >>> 32);
+	}
+
+	/**
+	 * string hash functions do not spread keys evenly enough for block
+	 * selection, so both codes are remixed first
+	 */
+	static long mix(int firstHashCode, int secondHashCode) {
+		long h = ((long) firstHashCode << 32) | (secondHashCode & 0xFFFFFFFFL);
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	static class OptimumFinder {
+		private static final int MAX_BLOCKS = Integer.MAX_VALUE / BLOCK_BITS;
+
+		int numOfBlocks;
+		int numOfHashFunction;
+
+		OptimumFinder(double errorRate, long capacity) {
+			numOfBlocks = MAX_BLOCKS;
+			numOfHashFunction = 1;
+
+			for (int k = 1; k < 20; k++) {
+				int lo = 1;
+				int hi = MAX_BLOCKS;
+				if (falsePositiveRate(capacity, hi, k) > errorRate)
+					continue;
+
+				// smallest block count which satisfies error rate
+				while (lo < hi) {
+					int mid = (int) (((long) lo + hi) >>> 1);
+					if (falsePositiveRate(capacity, mid, k) <= errorRate)
+						hi = mid;
+					else
+						lo = mid + 1;
+				}
+
+				if (lo < numOfBlocks) {
+					numOfBlocks = lo;
+					numOfHashFunction = k;
+				}
+			}
+		}
+
+		/**
+		 * keys per block follow poisson distribution, and each block behaves
+		 * as a small standard bloom filter
+		 */
+		static double falsePositiveRate(long capacity, int blocks, int k) {
+			double lambda = (double) capacity / blocks;
+			double logLambda = Math.log(lambda);
+			double limit = lambda + 10 * Math.sqrt(lambda) + 10;
+			double logP = -lambda;
+			double fpr = 0;
+			for (int j = 0; j <= limit; j++) {
+				if (j > 0)
+					logP += logLambda - Math.log(j);
+
+				double p = Math.exp(logP);
+				fpr += p * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) j * k), k);
+			}
+			return fpr;
+		}
+	}
+
+	public int getHashFuncCount() {
+		return numOfHashFunction;
+	}
+
+}
@@ -18,13 +18,26 @@ package org.araqne.bloomfilter;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.BitSet;
 
 public class BloomFilter<T> {
+	private static final ThreadLocal<ByteBuffer> IO_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(64 * 1024);
+		}
+	};
+
 	private int numOfBits;
 	private int numOfHashFunction;
 	private final HashFunction<T> firstFunction;
@@ -68,23 +81,29 @@ public class BloomFilter<T> {
 	}
 
 	public void add(HashValue<T> v) {
+		add(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public void add(int firstHashCode, int secondHashCode) {
 		for (int i = 0; i < numOfHashFunction; i++) {
-			int index = getIndex(v.getFirstHashCode(), v.getSecondHashCode(), i);
+			int index = getIndex(firstHashCode, secondHashCode, i);
 			this.bitmap.set(index);
 		}
 	}
 
 	public void add(T key) {
-		HashValue<T> v = new HashValue<T>(key, firstFunction, secondFunction);
-
-		add(v);
+		add(firstFunction.hashCode(key), secondFunction.hashCode(key));
 	}
 
 	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) {
 		if (numOfBits == 0)
 			return false;
 		for (int i = 0; i < numOfHashFunction; i++) {
-			int index = getIndex(v.getFirstHashCode(), v.getSecondHashCode(), i);
+			int index = getIndex(firstHashCode, secondHashCode, i);
 			if (this.bitmap.get(index) == false)
 				return false;
 		}
@@ -92,20 +111,27 @@ public class BloomFilter<T> {
 	}
 
 	public boolean contains(T key) {
-		HashValue<T> v = new HashValue<T>(key, firstFunction, secondFunction);
-
-		return contains(v);
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
 	}
 
 	public BitSet getBitmap() {
 		return bitmap;
 	}
 
+	public int getNumOfBits() {
+		return numOfBits;
+	}
+
 	public void load(InputStream is) throws IOException {
 		load(is, false);
 	}
 
 	public void load(InputStream is, boolean noaccel) throws IOException {
+		if (!noaccel) {
+			load(Channels.newChannel(is));
+			return;
+		}
+
 		DataInputStream dis = new DataInputStream(is);
 		int length = dis.readInt();
 
@@ -201,28 +227,12 @@ public class BloomFilter<T> {
 		return streamLength(false);
 	}
 
+	/**
+	 * noaccel is ignored, since the length is computed from the bit length
+	 * without scanning the bitmap
+	 */
 	public long streamLength(boolean noaccel) {
-		if (!noaccel) {
-			try {
-				long[] words = bitmap.toLongArray();
-				return words.length * 8 + getStreamHeaderLength();
-			} catch (NoSuchMethodError e) {
-			}
-		}
-
-		int count = 0;
-		long wrote = getStreamHeaderLength();
-		for (int i = 0; i < bitmap.length(); i++) {
-			if (count++ == 63) {
-				wrote += 8;
-				count = 0;
-			}
-		}
-
-		if (bitmap.length() % 64 != 0) {
-			wrote += 8;
-		}
-		return wrote;
+		return (long) Bitmap.wordCount(bitmap.length()) * 8 + getStreamHeaderLength();
 	}
 
 	private int getStreamHeaderLength() {
@@ -234,6 +244,9 @@ public class BloomFilter<T> {
 	}
 
 	public long save(OutputStream os, boolean noaccel) throws IOException {
+		if (!noaccel)
+			return save(Channels.newChannel(os));
+
 		DataOutputStream dos = new DataOutputStream(os);
 		dos.writeInt(-2); // version
 		dos.writeInt(numOfHashFunction);
@@ -276,6 +289,123 @@ public class BloomFilter<T> {
 		return wrote;
 	}
 
+	/**
+	 * reads version 1 or 2 stream from the channel. Exactly the declared
+	 * payload length is read, so the channel can be positioned after the
+	 * filter. A truncated payload loads as zero bits.
+	 */
+	public void load(ReadableByteChannel channel) throws IOException {
+		ByteBuffer buf = IO_BUFFER.get();
+		readHeader(channel, buf, 4);
+		int length = buf.getInt(0);
+		if (length < 0) {
+			int version = -length;
+			if (version != 2)
+				throw new IllegalArgumentException("unsupported version: " + version);
+
+			readHeader(channel, buf, 4 * 3);
+			int numOfHashFunc = buf.getInt(0);
+			int numOfBits = buf.getInt(4);
+			int streamLength = buf.getInt(8);
+			this.attach(BitSet.valueOf(readWords(channel, buf, Bitmap.wordCount(streamLength))), numOfBits, numOfHashFunc);
+		} else {
+			// version 1 has bit length only
+			this.bitmap = BitSet.valueOf(readWords(channel, buf, Bitmap.wordCount(length)));
+		}
+	}
+
+	public void load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			load(raf.getChannel());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * writes version 2 stream. Words are converted in bulk through a reused
+	 * direct buffer, and the bytes are same as {@link #save(OutputStream)}.
+	 */
+	public long save(WritableByteChannel channel) throws IOException {
+		long[] words = bitmap.toLongArray();
+		ByteBuffer buf = IO_BUFFER.get();
+		buf.clear();
+		buf.putInt(-2); // version
+		buf.putInt(numOfHashFunction);
+		buf.putInt(numOfBits);
+		buf.putInt(bitmap.length());
+		buf.flip();
+		writeFully(channel, buf);
+
+		buf.clear();
+		LongBuffer longs = buf.asLongBuffer();
+		for (int offset = 0; offset < words.length;) {
+			int count = Math.min(longs.capacity(), words.length - offset);
+			longs.clear();
+			longs.put(words, offset, count);
+			offset += count;
+
+			buf.clear();
+			buf.limit(count * 8);
+			writeFully(channel, buf);
+		}
+		return (long) words.length * 8 + getStreamHeaderLength();
+	}
+
+	public long save(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			return save(raf.getChannel());
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static long[] readWords(ReadableByteChannel channel, ByteBuffer buf, int count) throws IOException {
+		long[] words = new long[count];
+		buf.clear();
+		LongBuffer longs = buf.asLongBuffer();
+		for (int offset = 0; offset < count;) {
+			int n = Math.min(longs.capacity(), count - offset);
+			// keep bytes of the last partial word
+			int bytes = readFully(channel, buf, n * 8);
+			int read = (bytes + 7) / 8;
+			for (int i = bytes; i < read * 8; i++)
+				buf.put(i, (byte) 0);
+			longs.clear();
+			longs.get(words, offset, read);
+			if (read < n)
+				break;
+			offset += n;
+		}
+		return words;
+	}
+
+	/**
+	 * reads exactly length bytes from buffer position 0 unless the channel
+	 * ends, and returns read bytes
+	 */
+	private static int readFully(ReadableByteChannel channel, ByteBuffer buf, int length) throws IOException {
+		buf.clear();
+		buf.limit(length);
+		while (buf.hasRemaining())
+			if (channel.read(buf) < 0)
+				break;
+		return buf.position();
+	}
+
+	private static void readHeader(ReadableByteChannel channel, ByteBuffer buf, int length) throws IOException {
+		if (readFully(channel, buf, length) < length)
+			throw new EOFException("truncated bloom filter header");
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining())
+			channel.write(buf);
+	}
+
 	@Override
 	public String toString() {
 		return String.format("BloomFilter-[%d KB, %d hashFunctions (%s, %s)]", this.numOfBits / 8 / 1024, this.numOfHashFunction,
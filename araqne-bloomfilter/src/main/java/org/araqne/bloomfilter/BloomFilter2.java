@@ -17,19 +17,27 @@ package org.araqne.bloomfilter;
 
 import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
 
 public class BloomFilter2<T> {
+	private static final int BATCH_SIZE = 1024;
+
 	private int numOfBits;
 	private int numOfHashFunction;
 	private final HashFunction<T> firstFunction;
 	private final HashFunction<T> secondFunction;
+	private final HashFunction64<T> function;
 	private Bitmap bitmap;
 
 	@SuppressWarnings("unchecked")
@@ -50,14 +58,27 @@ public class BloomFilter2<T> {
 		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
 		this.firstFunction = first;
 		this.secondFunction = second;
-		attach(new Bitmap(opt.numOfBits), opt.numOfBits, opt.numOfHashFunction);
+		this.function = null;
+		attach(new LongBitmap(opt.numOfBits), opt.numOfBits, opt.numOfHashFunction);
 	}
 
 	public BloomFilter2(double errorRate, long capacity, HashFunction<T> first, HashFunction<T> second, BitSet bitmap) {
 		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
 		this.firstFunction = first;
 		this.secondFunction = second;
-		attach(new Bitmap(opt.numOfBits), opt.numOfBits, opt.numOfHashFunction);
+		this.function = null;
+		attach(new LongBitmap(opt.numOfBits), opt.numOfBits, opt.numOfHashFunction);
+	}
+
+	/**
+	 * uses one 64-bit hash function for both hash codes
+	 */
+	public BloomFilter2(double errorRate, long capacity, HashFunction64<T> function) {
+		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
+		this.firstFunction = null;
+		this.secondFunction = null;
+		this.function = function;
+		attach(new LongBitmap(opt.numOfBits), opt.numOfBits, opt.numOfHashFunction);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -71,6 +92,7 @@ public class BloomFilter2<T> {
 		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
 		this.firstFunction = GeneralHashFunction.stringHashFunctions[2];
 		this.secondFunction = GeneralHashFunction.stringHashFunctions[1];
+		this.function = null;
 		attach(new Bitmap(opt.numOfBits, bb), opt.numOfBits, opt.numOfHashFunction);
 	}
 
@@ -78,32 +100,60 @@ public class BloomFilter2<T> {
 	public BloomFilter2(int numOfBits, int numOfHashFuncs, ByteBuffer bb) {
 		this.firstFunction = GeneralHashFunction.stringHashFunctions[2];
 		this.secondFunction = GeneralHashFunction.stringHashFunctions[1];
+		this.function = null;
 		this.attach(new Bitmap(numOfBits, bb), numOfBits, numOfHashFuncs);
 	}
 
+	public BloomFilter2(int numOfBits, int numOfHashFuncs, HashFunction<T> first, HashFunction<T> second, Bitmap bitmap) {
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.function = null;
+		this.attach(bitmap, numOfBits, numOfHashFuncs);
+	}
+
+	private BloomFilter2(BloomFilter2<T> source, Bitmap bitmap) {
+		this.firstFunction = source.firstFunction;
+		this.secondFunction = source.secondFunction;
+		this.function = source.function;
+		this.attach(bitmap, source.numOfBits, source.numOfHashFunction);
+	}
+
 	public HashValue<T> getHashValue(T key) {
+		if (function != null)
+			return new HashValue<T>(key, function);
 		return new HashValue<T>(key, firstFunction, secondFunction);
 	}
 
 	public void add(HashValue<T> v) {
+		add(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public void add(int firstHashCode, int secondHashCode) {
 		for (int i = 0; i < numOfHashFunction; i++) {
-			int index = getIndex(v.getFirstHashCode(), v.getSecondHashCode(), i);
+			int index = getIndex(firstHashCode, secondHashCode, i);
 			this.bitmap.set(index);
 		}
 	}
 
 	public void add(T key) {
-		HashValue<T> v = new HashValue<T>(key, firstFunction, secondFunction);
-
-		add(v);
+		if (function != null) {
+			long h = function.hashCode64(key);
+			add(HashValue.first(h), HashValue.second(h));
+		} else {
+			add(firstFunction.hashCode(key), secondFunction.hashCode(key));
+		}
 	}
 
 	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) {
 		if (numOfBits == 0)
 			return false;
 
 		for (int i = 0; i < numOfHashFunction; i++) {
-			int index = getIndex(v.getFirstHashCode(), v.getSecondHashCode(), i);
+			int index = getIndex(firstHashCode, secondHashCode, i);
 			if (this.bitmap.get(index) == false)
 				return false;
 		}
@@ -111,15 +161,324 @@ public class BloomFilter2<T> {
 	}
 
 	public boolean contains(T key) {
-		HashValue<T> v = new HashValue<T>(key, firstFunction, secondFunction);
+		if (function != null) {
+			long h = function.hashCode64(key);
+			return contains(HashValue.first(h), HashValue.second(h));
+		} else {
+			return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+		}
+	}
+
+	/**
+	 * hashes whole batch first and then sets bits probe by probe across keys,
+	 * so that independent memory accesses overlap
+	 */
+	public void addAll(T[] keys) {
+		int batch = Math.min(keys.length, BATCH_SIZE);
+		int[] first = new int[batch];
+		int[] second = new int[batch];
+		for (int offset = 0; offset < keys.length; offset += batch) {
+			int count = Math.min(batch, keys.length - offset);
+			hash(keys, offset, count, first, second);
+			addAll(first, second, count);
+		}
+	}
+
+	public void addAll(HashValue<T>[] values) {
+		int batch = Math.min(values.length, BATCH_SIZE);
+		int[] first = new int[batch];
+		int[] second = new int[batch];
+		for (int offset = 0; offset < values.length; offset += batch) {
+			int count = Math.min(batch, values.length - offset);
+			for (int j = 0; j < count; j++) {
+				first[j] = values[offset + j].getFirstHashCode();
+				second[j] = values[offset + j].getSecondHashCode();
+			}
+			addAll(first, second, count);
+		}
+	}
 
-		return contains(v);
+	public void addAll(int[] firstHashCodes, int[] secondHashCodes, int count) {
+		for (int i = 0; i < numOfHashFunction; i++)
+			for (int j = 0; j < count; j++)
+				bitmap.set(getIndex(firstHashCodes[j], secondHashCodes[j], i));
+	}
+
+	/**
+	 * writes membership of each key to results, and returns count of keys
+	 * which might be contained
+	 */
+	public int containsAll(T[] keys, boolean[] results) {
+		int batch = Math.min(keys.length, BATCH_SIZE);
+		int[] first = new int[batch];
+		int[] second = new int[batch];
+		int[] live = new int[batch];
+		int found = 0;
+		for (int offset = 0; offset < keys.length; offset += batch) {
+			int count = Math.min(batch, keys.length - offset);
+			hash(keys, offset, count, first, second);
+			found += containsAll(first, second, count, live, results, offset);
+		}
+		return found;
+	}
+
+	public int containsAll(HashValue<T>[] values, boolean[] results) {
+		int batch = Math.min(values.length, BATCH_SIZE);
+		int[] first = new int[batch];
+		int[] second = new int[batch];
+		int[] live = new int[batch];
+		int found = 0;
+		for (int offset = 0; offset < values.length; offset += batch) {
+			int count = Math.min(batch, values.length - offset);
+			for (int j = 0; j < count; j++) {
+				first[j] = values[offset + j].getFirstHashCode();
+				second[j] = values[offset + j].getSecondHashCode();
+			}
+			found += containsAll(first, second, count, live, results, offset);
+		}
+		return found;
+	}
+
+	public int containsAll(int[] firstHashCodes, int[] secondHashCodes, int count, boolean[] results) {
+		return containsAll(firstHashCodes, secondHashCodes, count, new int[count], results, 0);
+	}
+
+	/**
+	 * live holds candidates which passed all previous probes, and shrinks
+	 * after each probe round
+	 */
+	private int containsAll(int[] first, int[] second, int count, int[] live, boolean[] results, int offset) {
+		if (numOfBits == 0) {
+			Arrays.fill(results, offset, offset + count, false);
+			return 0;
+		}
+
+		for (int j = 0; j < count; j++)
+			live[j] = j;
+
+		int liveCount = count;
+		for (int i = 0; i < numOfHashFunction && liveCount > 0; i++) {
+			int next = 0;
+			for (int n = 0; n < liveCount; n++) {
+				int j = live[n];
+				if (bitmap.get(getIndex(first[j], second[j], i)))
+					live[next++] = j;
+			}
+			liveCount = next;
+		}
+
+		Arrays.fill(results, offset, offset + count, false);
+		for (int n = 0; n < liveCount; n++)
+			results[offset + live[n]] = true;
+		return liveCount;
+	}
+
+	/**
+	 * sets bits of keys[from, to) into words of {@link LongBitmap} layout
+	 * instead of the filter bitmap, for parallel construction
+	 */
+	void addTo(long[] words, List<T> keys, int from, int to) {
+		for (int j = from; j < to; j++) {
+			T key = keys.get(j);
+			int first, second;
+			if (function != null) {
+				long h = function.hashCode64(key);
+				first = HashValue.first(h);
+				second = HashValue.second(h);
+			} else {
+				first = firstFunction.hashCode(key);
+				second = secondFunction.hashCode(key);
+			}
+
+			for (int i = 0; i < numOfHashFunction; i++) {
+				int index = getIndex(first, second, i);
+				words[index >>> 6] |= 1L << index;
+			}
+		}
+	}
+
+	private void hash(T[] keys, int offset, int count, int[] first, int[] second) {
+		if (function != null) {
+			for (int j = 0; j < count; j++) {
+				long h = function.hashCode64(keys[offset + j]);
+				first[j] = HashValue.first(h);
+				second[j] = HashValue.second(h);
+			}
+		} else {
+			for (int j = 0; j < count; j++) {
+				T key = keys[offset + j];
+				first[j] = firstFunction.hashCode(key);
+				second[j] = secondFunction.hashCode(key);
+			}
+		}
 	}
 
 	public Bitmap getBitmap() {
 		return bitmap;
 	}
 
+	public int getNumOfBits() {
+		return numOfBits;
+	}
+
+	/**
+	 * returns a heap copy which has the same hash functions and bits
+	 */
+	public BloomFilter2<T> copy() {
+		LongBitmap bm = new LongBitmap(numOfBits);
+		long[] target = bm.getWords();
+		int count = getWordCount();
+		for (int i = 0; i < count; i++)
+			target[i] = bitmap.getWord(i);
+		return new BloomFilter2<T>(this, bm);
+	}
+
+	/**
+	 * true if both filters have same bit length, hash count and hash
+	 * functions, so that their bitmaps can be combined word by word
+	 */
+	public boolean isCompatible(BloomFilter2<T> other) {
+		return numOfBits == other.numOfBits && numOfHashFunction == other.numOfHashFunction
+				&& same(firstFunction, other.firstFunction) && same(secondFunction, other.secondFunction)
+				&& same(function, other.function);
+	}
+
+	/**
+	 * sets bits of other filter into this filter. Use copy().union(other) to
+	 * keep this filter unchanged.
+	 *
+	 * @return this filter
+	 */
+	public BloomFilter2<T> union(BloomFilter2<T> other) {
+		checkCompatible(other);
+		int count = getWordCount();
+		if (bitmap instanceof LongBitmap && other.bitmap instanceof LongBitmap) {
+			long[] a = ((LongBitmap) bitmap).getWords();
+			long[] b = ((LongBitmap) other.bitmap).getWords();
+			for (int i = 0; i < count; i++)
+				a[i] |= b[i];
+		} else {
+			for (int i = 0; i < count; i++)
+				bitmap.setWord(i, bitmap.getWord(i) | other.bitmap.getWord(i));
+		}
+		return this;
+	}
+
+	/**
+	 * clears bits which are not set in other filter. The result may have more
+	 * false positives than a filter built from common keys.
+	 *
+	 * @return this filter
+	 */
+	public BloomFilter2<T> intersect(BloomFilter2<T> other) {
+		checkCompatible(other);
+		int count = getWordCount();
+		if (bitmap instanceof LongBitmap && other.bitmap instanceof LongBitmap) {
+			long[] a = ((LongBitmap) bitmap).getWords();
+			long[] b = ((LongBitmap) other.bitmap).getWords();
+			for (int i = 0; i < count; i++)
+				a[i] &= b[i];
+		} else {
+			for (int i = 0; i < count; i++)
+				bitmap.setWord(i, bitmap.getWord(i) & other.bitmap.getWord(i));
+		}
+		return this;
+	}
+
+	/**
+	 * @return number of set bits
+	 */
+	public long getBitCount() {
+		long bits = 0;
+		int count = getWordCount();
+		for (int i = 0; i < count; i++)
+			bits += Long.bitCount(bitmap.getWord(i));
+		return bits;
+	}
+
+	/**
+	 * estimates number of added keys from set bit count (Swamidass and Baldi)
+	 */
+	public double estimateCount() {
+		return estimateCount(getBitCount());
+	}
+
+	/**
+	 * estimates |A and B| as |A| + |B| - |A or B|, without building the union.
+	 * Returns {@link Double#POSITIVE_INFINITY} when all bits of the union are
+	 * set, since the counts are unbounded then.
+	 */
+	public double estimateIntersectionSize(BloomFilter2<T> other) {
+		long[] counts = countBits(other);
+		long a = counts[0], b = counts[1], union = counts[2];
+		if (union >= numOfBits)
+			return Double.POSITIVE_INFINITY;
+
+		return Math.max(0, estimateCount(a) + estimateCount(b) - estimateCount(union));
+	}
+
+	/**
+	 * estimates jaccard similarity |A and B| / |A or B|. When all bits of the
+	 * union are set, count estimates are unbounded and the ratio of bits set in
+	 * both filters to bits set in either is returned instead.
+	 */
+	public double jaccard(BloomFilter2<T> other) {
+		long[] counts = countBits(other);
+		long a = counts[0], b = counts[1], union = counts[2];
+		if (union == 0)
+			return 1;
+		if (union >= numOfBits)
+			return (double) (a + b - union) / union;
+
+		double unionCount = estimateCount(union);
+		double intersection = Math.max(0, estimateCount(a) + estimateCount(b) - unionCount);
+		return Math.min(1, intersection / unionCount);
+	}
+
+	/**
+	 * counts set bits of this, other and their union in one pass
+	 */
+	private long[] countBits(BloomFilter2<T> other) {
+		checkCompatible(other);
+		long a = 0, b = 0, union = 0;
+		int count = getWordCount();
+		for (int i = 0; i < count; i++) {
+			long x = bitmap.getWord(i);
+			long y = other.bitmap.getWord(i);
+			a += Long.bitCount(x);
+			b += Long.bitCount(y);
+			union += Long.bitCount(x | y);
+		}
+		return new long[] { a, b, union };
+	}
+
+	private double estimateCount(long bits) {
+		return estimateCount(bits, numOfBits, numOfHashFunction);
+	}
+
+	/**
+	 * Swamidass and Baldi estimate of added keys for a bitmap of numOfBits
+	 * with setBits set, shared with {@link BloomFilterStats}
+	 */
+	static double estimateCount(long setBits, long numOfBits, int numOfHashFunction) {
+		if (setBits >= numOfBits)
+			return Double.POSITIVE_INFINITY;
+		return -((double) numOfBits / numOfHashFunction) * Math.log(1 - (double) setBits / numOfBits);
+	}
+
+	private int getWordCount() {
+		return Math.min(Bitmap.wordCount(numOfBits), bitmap.getWordCount());
+	}
+
+	private void checkCompatible(BloomFilter2<T> other) {
+		if (!isCompatible(other))
+			throw new IllegalArgumentException("incompatible bloom filter: " + other + ", expected " + this);
+	}
+
+	private static boolean same(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
 	public void load(InputStream is) throws IOException {
 		DataInputStream dis = new DataInputStream(is);
 		int length = dis.readInt();
@@ -132,36 +491,82 @@ public class BloomFilter2<T> {
 				int numOfBits = dis.readInt();
 				int streamLength = dis.readInt();
 
-				int longCount = streamLength / 64;
-				if (streamLength % 64 != 0)
-					longCount++;
-
-				ByteBuffer bb = ByteBuffer.allocate(longCount * 8);
-				try {
-					dis.readFully(bb.array());
-				} catch (EOFException eof) {
-				}
-
-				bb.limit(bb.capacity());
-				this.attach(new Bitmap(numOfBits, bb), numOfBits, numOfHashFunc);
+				LongBitmap bm = new LongBitmap(Math.max(numOfBits, streamLength));
+				bm.readWords(dis, Bitmap.wordCount(streamLength));
+				this.attach(bm, numOfBits, numOfHashFunc);
 				return;
 			} else {
 				throw new IllegalArgumentException("unsupported version: " + version);
 			}
 		} else {
 			// version 1 load
-			// try jdk 7 acceleration
-			ByteBuffer bb = ByteBuffer.allocate(length / 8 + 1);
-			try {
-				dis.readFully(bb.array());
-			} catch (EOFException eof) {
+			LongBitmap bm = new LongBitmap(Math.max(numOfBits, length));
+			bm.readWords(dis, Bitmap.wordCount(length));
+			this.bitmap = bm;
+		}
+	}
+
+	/**
+	 * maps version 2 file into memory instead of copying it to heap. The
+	 * bitmap wraps the mapped payload directly, so opening is O(1) and the
+	 * pages are shared with other processes through the OS page cache. With
+	 * READ_WRITE mode, add() writes through to the file.
+	 *
+	 * Version 1, truncated or short bitmap files cannot be mapped. They fall
+	 * back to stream loading in READ_ONLY and PRIVATE mode, and throw
+	 * IllegalArgumentException in READ_WRITE mode since add() would not reach
+	 * the file.
+	 */
+	public void load(File file, FileChannel.MapMode mode) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+
+			// version 1 header has bit length only
+			hdr.limit(4);
+			readFully(channel, hdr);
+			int version = -hdr.getInt(0);
+			if (version != 2) {
+				fallback(file, mode, channel, "version " + version + " file");
+				return;
 			}
-			bb.flip();
 
-			this.bitmap = new Bitmap(length, bb);
+			hdr.limit(hdr.capacity());
+			readFully(channel, hdr);
+			hdr.flip();
+			hdr.getInt();
+			int numOfHashFunc = hdr.getInt();
+			int numOfBits = hdr.getInt();
+			int streamLength = hdr.getInt();
+
+			long payloadLength = Bitmap.wordCount(streamLength) * 8L;
+			if (streamLength < numOfBits || channel.size() < getStreamHeaderLength() + payloadLength) {
+				fallback(file, mode, channel, "truncated file");
+				return;
+			}
+
+			ByteBuffer bb = channel.map(mode, getStreamHeaderLength(), payloadLength);
+			this.attach(new Bitmap(numOfBits, bb), numOfBits, numOfHashFunc);
+		} finally {
+			raf.close();
 		}
 	}
 
+	private void fallback(File file, FileChannel.MapMode mode, FileChannel channel, String reason) throws IOException {
+		if (mode == FileChannel.MapMode.READ_WRITE)
+			throw new IllegalArgumentException("cannot map " + reason + " for write: " + file);
+
+		channel.position(0);
+		load(Channels.newInputStream(channel));
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer bb) throws IOException {
+		while (bb.hasRemaining())
+			if (channel.read(bb) < 0)
+				throw new EOFException();
+	}
+
 	private void attach(Bitmap bm, int numOfBits, int numOfHash) {
 		this.bitmap = bm;
 		this.numOfBits = numOfBits;
@@ -190,16 +595,15 @@ public class BloomFilter2<T> {
 
 		WritableByteChannel newChannel = Channels.newChannel(os);
 		newChannel.write(hdr);
-		ByteBuffer bytes = bitmap.getBytes();
-		int pos = bytes.position();
-		bytes.position(0);
-		int wrote = newChannel.write(bytes);
-		bytes.position(pos);
+		long wrote = bitmap.writeTo(newChannel);
 		return wrote + getStreamHeaderLength();
 	}
 
 	@Override
 	public String toString() {
+		if (function != null)
+			return String.format("BloomFilter2-[%d KB, %d hashFunctions (%s)]", this.numOfBits / 8 / 1024,
+					this.numOfHashFunction, this.function.toString());
 		return String.format("BloomFilter2-[%d KB, %d hashFunctions (%s, %s)]", this.numOfBits / 8 / 1024,
 				this.numOfHashFunction, this.firstFunction.toString(), this.secondFunction.toString());
 	}
@@ -209,11 +613,11 @@ public class BloomFilter2<T> {
 		return (index < 0) ? -index : index;
 	}
 
-	private static class OptimumFinder {
-		private int numOfBits;
-		private int numOfHashFunction;
+	static class OptimumFinder {
+		int numOfBits;
+		int numOfHashFunction;
 
-		private OptimumFinder(double errorRate, long capacity) {
+		OptimumFinder(double errorRate, long capacity) {
 			numOfBits = Integer.MAX_VALUE;
 			numOfHashFunction = 1;
 			int m = 0;
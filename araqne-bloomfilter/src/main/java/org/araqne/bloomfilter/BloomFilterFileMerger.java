@@ -0,0 +1,255 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ORs saved version 2 {@link BloomFilter2} files into one file without
+ * loading them. Payloads are merged chunk by chunk through two direct buffers,
+ * so memory usage does not depend on filter size. Ranges which only one file
+ * covers, including the single input case, are copied with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ *
+ * Output is written to a temporary file in the same directory and renamed
+ * over the target, so the output may also be one of the inputs.
+ */
+public class BloomFilterFileMerger {
+	private static final int HEADER_LENGTH = 4 * 4;
+	private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	private final int chunkSize;
+
+	public BloomFilterFileMerger() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	public BloomFilterFileMerger(int chunkSize) {
+		if (chunkSize <= 0 || chunkSize % 8 != 0)
+			throw new IllegalArgumentException("chunk size should be positive multiple of 8: " + chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return written bytes including header
+	 */
+	public long merge(List<File> inputs, File output) throws IOException {
+		if (inputs.isEmpty())
+			throw new IllegalArgumentException("no input filter file");
+
+		File dir = output.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(output.getName() + ".merge", ".tmp", dir);
+		boolean done = false;
+		try {
+			long wrote = mergeTo(inputs, tmp);
+			try {
+				Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			done = true;
+			return wrote;
+		} finally {
+			if (!done)
+				tmp.delete();
+		}
+	}
+
+	private long mergeTo(List<File> inputs, File tmp) throws IOException {
+		List<Input> opened = new ArrayList<Input>(inputs.size());
+		RandomAccessFile out = null;
+		try {
+			for (File f : inputs)
+				opened.add(new Input(f));
+
+			Input first = opened.get(0);
+			int streamLength = first.streamLength;
+			for (Input in : opened) {
+				if (in.numOfHashFunction != first.numOfHashFunction || in.numOfBits != first.numOfBits)
+					throw new IllegalArgumentException("incompatible bloom filter file: " + in.file + ", expected "
+							+ first.numOfBits + " bits and " + first.numOfHashFunction + " hash functions");
+				streamLength = Math.max(streamLength, in.streamLength);
+			}
+
+			out = new RandomAccessFile(tmp, "rw");
+			FileChannel outChannel = out.getChannel();
+
+			if (opened.size() == 1 && first.available == first.payloadLength) {
+				long wrote = transfer(first, 0, HEADER_LENGTH + first.payloadLength, outChannel);
+				outChannel.force(false);
+				return wrote;
+			}
+
+			ByteBuffer hdr = ByteBuffer.allocate(HEADER_LENGTH);
+			hdr.putInt(-2); // version
+			hdr.putInt(first.numOfHashFunction);
+			hdr.putInt(first.numOfBits);
+			hdr.putInt(streamLength);
+			hdr.flip();
+			while (hdr.hasRemaining())
+				outChannel.write(hdr);
+
+			long payloadLength = (long) Bitmap.wordCount(streamLength) * 8;
+			long wrote = HEADER_LENGTH + mergePayloads(opened, payloadLength, outChannel);
+			outChannel.force(false);
+			return wrote;
+		} finally {
+			for (Input in : opened)
+				in.close();
+			if (out != null)
+				out.close();
+		}
+	}
+
+	private long mergePayloads(List<Input> inputs, long payloadLength, FileChannel out) throws IOException {
+		ByteBuffer acc = ByteBuffer.allocateDirect(chunkSize);
+		ByteBuffer tmp = ByteBuffer.allocateDirect(chunkSize);
+
+		long wrote = 0;
+		for (long pos = 0; pos < payloadLength;) {
+			int n = (int) Math.min(chunkSize, payloadLength - pos);
+
+			Input only = null;
+			int covering = 0;
+			for (Input in : inputs) {
+				if (in.available > pos) {
+					only = in;
+					covering++;
+				}
+			}
+
+			if (covering == 1 && only.available >= pos + n) {
+				wrote += transfer(only, HEADER_LENGTH + pos, n, out);
+				pos += n;
+				continue;
+			}
+
+			boolean filled = false;
+			for (Input in : inputs) {
+				if (in.available <= pos)
+					continue;
+
+				if (!filled) {
+					in.read(acc, pos, n);
+					filled = true;
+				} else {
+					in.read(tmp, pos, n);
+					for (int i = 0; i < n; i += 8)
+						acc.putLong(i, acc.getLong(i) | tmp.getLong(i));
+				}
+			}
+
+			if (!filled)
+				zero(acc, n);
+
+			acc.clear();
+			acc.limit(n);
+			while (acc.hasRemaining())
+				wrote += out.write(acc);
+			pos += n;
+		}
+		return wrote;
+	}
+
+	private long transfer(Input in, long position, long count, FileChannel out) throws IOException {
+		long wrote = 0;
+		while (wrote < count) {
+			long n = in.channel.transferTo(position + wrote, count - wrote, out);
+			if (n <= 0)
+				throw new IOException("cannot copy " + in.file + " at " + (position + wrote));
+			wrote += n;
+		}
+		return wrote;
+	}
+
+	private static void zero(ByteBuffer bb, int n) {
+		for (int i = 0; i < n; i += 8)
+			bb.putLong(i, 0);
+	}
+
+	private static class Input {
+		private final File file;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private final int numOfHashFunction;
+		private final int numOfBits;
+		private final int streamLength;
+		private final long payloadLength;
+
+		// payload bytes present in file, which may be truncated
+		private final long available;
+
+		private Input(File file) throws IOException {
+			this.file = file;
+			this.raf = new RandomAccessFile(file, "r");
+			this.channel = raf.getChannel();
+
+			ByteBuffer hdr = ByteBuffer.allocate(HEADER_LENGTH);
+			while (hdr.hasRemaining())
+				if (channel.read(hdr, hdr.position()) < 0)
+					break;
+
+			if (hdr.hasRemaining()) {
+				close();
+				throw new IOException("truncated bloom filter header: " + file);
+			}
+
+			hdr.flip();
+			int version = -hdr.getInt();
+			if (version != 2) {
+				close();
+				throw new IllegalArgumentException("unsupported version: " + version + ", " + file);
+			}
+
+			this.numOfHashFunction = hdr.getInt();
+			this.numOfBits = hdr.getInt();
+			this.streamLength = hdr.getInt();
+			this.payloadLength = (long) Bitmap.wordCount(streamLength) * 8;
+			this.available = Math.max(0, Math.min(payloadLength, channel.size() - HEADER_LENGTH));
+		}
+
+		/**
+		 * reads payload [pos, pos + n) into bb, zero filling missing bytes
+		 */
+		private void read(ByteBuffer bb, long pos, int n) throws IOException {
+			int len = (int) Math.max(0, Math.min(n, available - pos));
+			bb.clear();
+			bb.limit(len);
+			while (bb.hasRemaining())
+				if (channel.read(bb, HEADER_LENGTH + pos + bb.position()) < 0)
+					break;
+
+			int read = bb.position();
+			bb.limit(n);
+			for (int i = read; i < n; i++)
+				bb.put(i, (byte) 0);
+		}
+
+		private void close() throws IOException {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds saved version 2 {@link BloomFilter2} files which might contain any of
+ * given keys, without loading them. Keys are hashed once, and only the words
+ * of k probes are read from each file with positional reads. Files are
+ * scanned in parallel on a fork-join pool, and matches are reported to the
+ * listener as soon as they are found. Size the pool for blocking I/O.
+ *
+ * A scanner created without a pool owns its pool, and close() shuts it down.
+ * A pool given by the caller is not shut down.
+ */
+public class BloomFilterFileScanner<T> implements Closeable {
+	private static final int HEADER_LENGTH = 4 * 4;
+
+	// files per leaf task
+	private static final int THRESHOLD = 4;
+
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private final ForkJoinPool pool;
+	private final boolean ownPool;
+
+	@SuppressWarnings("unchecked")
+	public BloomFilterFileScanner() {
+		this(GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1], new ForkJoinPool(),
+				true);
+	}
+
+	public BloomFilterFileScanner(HashFunction<T> first, HashFunction<T> second, ForkJoinPool pool) {
+		this(first, second, pool, false);
+	}
+
+	private BloomFilterFileScanner(HashFunction<T> first, HashFunction<T> second, ForkJoinPool pool, boolean ownPool) {
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.pool = pool;
+		this.ownPool = ownPool;
+	}
+
+	/**
+	 * listener is called from worker threads concurrently
+	 */
+	public interface Listener {
+		void onMatch(File file);
+
+		void onError(File file, Exception e);
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	/**
+	 * @return files which might contain any of keys, in no particular order
+	 */
+	public List<File> scan(List<File> files, List<T> keys) throws IOException {
+		final List<File> matches = Collections.synchronizedList(new ArrayList<File>());
+		final List<IOException> errors = Collections.synchronizedList(new ArrayList<IOException>());
+		scan(files, keys, new Listener() {
+			@Override
+			public void onMatch(File file) {
+				matches.add(file);
+			}
+
+			@Override
+			public void onError(File file, Exception e) {
+				errors.add(new IOException("cannot scan " + file, e));
+			}
+		});
+
+		if (!errors.isEmpty())
+			throw errors.get(0);
+		return matches;
+	}
+
+	public void scan(List<File> files, List<T> keys, Listener listener) {
+		int[] first = new int[keys.size()];
+		int[] second = new int[keys.size()];
+		for (int i = 0; i < keys.size(); i++) {
+			T key = keys.get(i);
+			first[i] = firstFunction.hashCode(key);
+			second[i] = secondFunction.hashCode(key);
+		}
+		scan(files, first, second, listener);
+	}
+
+	public void scanHashValues(List<File> files, List<HashValue<T>> values, Listener listener) {
+		int[] first = new int[values.size()];
+		int[] second = new int[values.size()];
+		for (int i = 0; i < values.size(); i++) {
+			first[i] = values.get(i).getFirstHashCode();
+			second[i] = values.get(i).getSecondHashCode();
+		}
+		scan(files, first, second, listener);
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	@Override
+	public void close() {
+		if (ownPool)
+			pool.shutdown();
+	}
+
+	private void scan(List<File> files, int[] first, int[] second, Listener listener) {
+		if (!(files instanceof RandomAccess))
+			files = new ArrayList<File>(files);
+		pool.invoke(new ScanTask(files, 0, files.size(), first, second, listener));
+	}
+
+	/**
+	 * @return true if any key might be contained in the file
+	 */
+	static boolean mightContain(File file, int[] first, int[] second) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer bb = ByteBuffer.allocate(HEADER_LENGTH);
+			read(channel, bb, 0);
+			if (bb.hasRemaining())
+				throw new IOException("truncated bloom filter header: " + file);
+
+			bb.flip();
+			int version = -bb.getInt();
+			if (version != 2)
+				throw new IllegalArgumentException("unsupported version: " + version);
+
+			int numOfHashFunction = bb.getInt();
+			int numOfBits = bb.getInt();
+			int streamLength = bb.getInt();
+			long words = Math.min(Bitmap.wordCount(streamLength), (channel.size() - HEADER_LENGTH) / 8);
+			if (numOfBits == 0)
+				return false;
+
+			ByteBuffer word = ByteBuffer.allocate(8);
+			for (int j = 0; j < first.length; j++) {
+				boolean found = true;
+				for (int i = 0; i < numOfHashFunction && found; i++) {
+					int index = (first[j] + (i * second[j])) % numOfBits;
+					index = (index < 0) ? -index : index;
+					int w = index >>> 6;
+					if (w >= words)
+						found = false;
+					else {
+						word.clear();
+						read(channel, word, HEADER_LENGTH + (long) w * 8);
+						found = (word.getLong(0) & (1L << index)) != 0;
+					}
+				}
+
+				if (found)
+					return true;
+			}
+			return false;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void read(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+		while (bb.hasRemaining())
+			if (channel.read(bb, position + bb.position()) < 0)
+				break;
+	}
+
+	private static class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<File> files;
+		private final int from;
+		private final int to;
+		private final int[] first;
+		private final int[] second;
+		private final Listener listener;
+
+		private ScanTask(List<File> files, int from, int to, int[] first, int[] second, Listener listener) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.first = first;
+			this.second = second;
+			this.listener = listener;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ScanTask(files, from, mid, first, second, listener), new ScanTask(files, mid, to, first,
+						second, listener));
+				return;
+			}
+
+			for (int i = from; i < to; i++) {
+				File file = files.get(i);
+				try {
+					if (mightContain(file, first, second))
+						listener.onMatch(file);
+				} catch (IOException e) {
+					listener.onError(file, e);
+				} catch (RuntimeException e) {
+					listener.onError(file, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters and bit statistics shared by instrumented filter wrappers. The
+ * wrapped filter is not changed, so uninstrumented filters pay nothing.
+ */
+public abstract class BloomFilterStats implements BloomFilterStatsMBean {
+	private final StripedCounter addCount = new StripedCounter();
+	private final StripedCounter queryCount = new StripedCounter();
+	private final StripedCounter positiveCount = new StripedCounter();
+
+	protected void countAdd() {
+		addCount.increment();
+	}
+
+	protected boolean countQuery(boolean result) {
+		queryCount.increment();
+		if (result)
+			positiveCount.increment();
+		return result;
+	}
+
+	@Override
+	public long getAddCount() {
+		return addCount.sum();
+	}
+
+	@Override
+	public long getQueryCount() {
+		return queryCount.sum();
+	}
+
+	@Override
+	public long getPositiveCount() {
+		return positiveCount.sum();
+	}
+
+	@Override
+	public double getPositiveRatio() {
+		long queries = queryCount.sum();
+		return queries == 0 ? 0 : (double) positiveCount.sum() / queries;
+	}
+
+	@Override
+	public double getFillRatio() {
+		int bits = getNumOfBits();
+		return bits == 0 ? 0 : (double) getBitCount() / bits;
+	}
+
+	@Override
+	public double getEstimatedCardinality() {
+		int bits = getNumOfBits();
+		if (bits == 0)
+			return 0;
+		return BloomFilter2.estimateCount(getBitCount(), bits, getHashFuncCount());
+	}
+
+	@Override
+	public double getEstimatedFalsePositiveRate() {
+		return Math.pow(getFillRatio(), getHashFuncCount());
+	}
+
+	@Override
+	public void resetCounters() {
+		addCount.reset();
+		queryCount.reset();
+		positiveCount.reset();
+	}
+
+	/**
+	 * registers this filter to platform mbean server, e.g. with name
+	 * "org.araqne.bloomfilter:type=BloomFilter,name=segment1"
+	 */
+	public ObjectName register(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(name);
+		server.registerMBean(new StandardMBean(this, BloomFilterStatsMBean.class), objectName);
+		return objectName;
+	}
+
+	public void unregister(ObjectName name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+	}
+}
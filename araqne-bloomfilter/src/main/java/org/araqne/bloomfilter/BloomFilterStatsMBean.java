@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+/**
+ * JMX view of an instrumented filter. Bit based values scan the whole bitmap
+ * on each call.
+ */
+public interface BloomFilterStatsMBean {
+	long getAddCount();
+
+	long getQueryCount();
+
+	long getPositiveCount();
+
+	/**
+	 * @return positive query results / queries
+	 */
+	double getPositiveRatio();
+
+	int getNumOfBits();
+
+	int getHashFuncCount();
+
+	long getBitCount();
+
+	/**
+	 * @return set bits / bits
+	 */
+	double getFillRatio();
+
+	/**
+	 * @return -(m / k) * ln(1 - X / m) for m bits, k hash functions and X set
+	 *         bits (Swamidass and Baldi)
+	 */
+	double getEstimatedCardinality();
+
+	/**
+	 * @return (X / m) ^ k, the probability that k probes hit set bits
+	 */
+	double getEstimatedFalsePositiveRate();
+
+	void resetCounters();
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.araqne.bloomfilter.BloomFilter2.OptimumFinder;
+
+/**
+ * Thread-safe variant of {@link BloomFilter2}. add() and contains() can be
+ * called from any number of threads without external locking, and the stream
+ * format is identical to BloomFilter2 version 2. load() replaces the bitmap
+ * and must not race with other calls.
+ *
+ * {@link #snapshot()} takes a point-in-time image which can be saved while
+ * other threads keep adding keys.
+ */
+public class ConcurrentBloomFilter2<T> {
+	// 512 words (4 KB) per copy-on-write page
+	private static final int PAGE_SHIFT = 9;
+	private static final int PAGE_WORDS = 1 << PAGE_SHIFT;
+
+	private int numOfBits;
+	private int numOfHashFunction;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private volatile AtomicBitmap bitmap;
+
+	// open snapshot, read once per add()
+	private volatile Snapshot<T> snapshot;
+
+	@SuppressWarnings("unchecked")
+	public ConcurrentBloomFilter2() {
+		this(GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	@SuppressWarnings("unchecked")
+	public ConcurrentBloomFilter2(long capacity) {
+		this(0.001, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public ConcurrentBloomFilter2(HashFunction<T> first, HashFunction<T> second) {
+		this(0.001, 1000000L, first, second);
+	}
+
+	public ConcurrentBloomFilter2(double errorRate, long capacity, HashFunction<T> first, HashFunction<T> second) {
+		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
+		this.firstFunction = first;
+		this.secondFunction = second;
+		attach(new AtomicBitmap(opt.numOfBits), opt.numOfBits, opt.numOfHashFunction);
+	}
+
+	@SuppressWarnings("unchecked")
+	public ConcurrentBloomFilter2(double errorRate, int capacity) {
+		this(errorRate, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	public void add(HashValue<T> v) {
+		add(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public void add(int firstHashCode, int secondHashCode) {
+		AtomicBitmap bitmap = this.bitmap;
+		Snapshot<T> snapshot = this.snapshot;
+		if (snapshot == null) {
+			for (int i = 0; i < numOfHashFunction; i++)
+				bitmap.set(getIndex(firstHashCode, secondHashCode, i));
+			return;
+		}
+
+		for (int i = 0; i < numOfHashFunction; i++) {
+			int index = getIndex(firstHashCode, secondHashCode, i);
+			if (!bitmap.get(index))
+				snapshot.preserve(index >> 6);
+			bitmap.set(index);
+		}
+	}
+
+	public void add(T key) {
+		add(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) {
+		if (numOfBits == 0)
+			return false;
+
+		AtomicBitmap bitmap = this.bitmap;
+		for (int i = 0; i < numOfHashFunction; i++) {
+			int index = getIndex(firstHashCode, secondHashCode, i);
+			if (bitmap.get(index) == false)
+				return false;
+		}
+		return true;
+	}
+
+	public boolean contains(T key) {
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	/**
+	 * returns point-in-time image of the filter. add() keeps running without
+	 * locks while the snapshot is open, but copies a page before it sets the
+	 * first new bit of the page, so close the snapshot as soon as it is saved.
+	 * Only one snapshot can be open at a time.
+	 *
+	 * Keys added before this call are included, and keys added after it
+	 * returns are not. add() does not register itself, so that it stays free
+	 * of shared writes while no snapshot is open. As a result an add() which
+	 * started before this call returned may still set bits in pages copied
+	 * later. Such keys may be partially included, which only raises false
+	 * positive rate of the image.
+	 */
+	public synchronized Snapshot<T> snapshot() {
+		if (this.snapshot != null)
+			throw new IllegalStateException("snapshot is already open");
+
+		Snapshot<T> snapshot = new Snapshot<T>(this, bitmap, numOfBits, numOfHashFunction);
+		this.snapshot = snapshot;
+		return snapshot;
+	}
+
+	private synchronized void release(Snapshot<T> snapshot) {
+		if (this.snapshot == snapshot)
+			this.snapshot = null;
+	}
+
+	public AtomicBitmap getBitmap() {
+		return bitmap;
+	}
+
+	public void load(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		int length = dis.readInt();
+
+		if (length < 0) {
+			// length field means version
+			int version = -length;
+			if (version == 2) {
+				int numOfHashFunc = dis.readInt();
+				int numOfBits = dis.readInt();
+				int streamLength = dis.readInt();
+
+				AtomicBitmap bm = new AtomicBitmap(Math.max(numOfBits, streamLength));
+				bm.readWords(dis, Bitmap.wordCount(streamLength));
+				this.attach(bm, numOfBits, numOfHashFunc);
+			} else {
+				throw new IllegalArgumentException("unsupported version: " + version);
+			}
+		} else {
+			// version 1 load
+			AtomicBitmap bm = new AtomicBitmap(Math.max(numOfBits, length));
+			bm.readWords(dis, Bitmap.wordCount(length));
+			this.bitmap = bm;
+		}
+	}
+
+	private void attach(AtomicBitmap bm, int numOfBits, int numOfHash) {
+		this.numOfBits = numOfBits;
+		this.numOfHashFunction = numOfHash;
+		this.bitmap = bm;
+	}
+
+	public long streamLength() {
+		return bitmap.getByteLength() + getStreamHeaderLength();
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 4;
+	}
+
+	/**
+	 * writes version 2 stream while other threads keep adding keys. bits set
+	 * during the save may or may not be included.
+	 */
+	public long save(OutputStream os) throws IOException {
+		AtomicBitmap bitmap = this.bitmap;
+		ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+		hdr.putInt(-2); // version
+		hdr.putInt(numOfHashFunction);
+		hdr.putInt(numOfBits);
+		hdr.putInt(bitmap.length());
+		hdr.flip();
+
+		WritableByteChannel newChannel = Channels.newChannel(os);
+		newChannel.write(hdr);
+
+		long wrote = bitmap.writeTo(newChannel);
+		return wrote + getStreamHeaderLength();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ConcurrentBloomFilter2-[%d KB, %d hashFunctions (%s, %s)]", this.numOfBits / 8 / 1024,
+				this.numOfHashFunction, this.firstFunction.toString(), this.secondFunction.toString());
+	}
+
+	private int getIndex(int firstHashCode, int secondHashCode, int i) {
+		int index = (firstHashCode + (i * secondHashCode)) % this.numOfBits;
+		return (index < 0) ? -index : index;
+	}
+
+	public int getHashFuncCount() {
+		return numOfHashFunction;
+	}
+
+	/**
+	 * consistent image taken by {@link ConcurrentBloomFilter2#snapshot()}.
+	 * Pages are copied lazily, by writers before their first new bit or by
+	 * readers on first access, and the first copy of a page wins.
+	 */
+	public static class Snapshot<T> implements Closeable {
+		private final ConcurrentBloomFilter2<T> filter;
+		private final AtomicBitmap bitmap;
+		private final int numOfBits;
+		private final int numOfHashFunction;
+		private final AtomicReferenceArray<long[]> pages;
+		private volatile boolean closed;
+
+		private Snapshot(ConcurrentBloomFilter2<T> filter, AtomicBitmap bitmap, int numOfBits, int numOfHashFunction) {
+			this.filter = filter;
+			this.bitmap = bitmap;
+			this.numOfBits = numOfBits;
+			this.numOfHashFunction = numOfHashFunction;
+			this.pages = new AtomicReferenceArray<long[]>((bitmap.getWordCount() + PAGE_WORDS - 1) >> PAGE_SHIFT);
+		}
+
+		public int getNumOfBits() {
+			return numOfBits;
+		}
+
+		public int getHashFuncCount() {
+			return numOfHashFunction;
+		}
+
+		public int getWordCount() {
+			return bitmap.getWordCount();
+		}
+
+		public long getWord(int index) {
+			return page(index >> PAGE_SHIFT)[index & (PAGE_WORDS - 1)];
+		}
+
+		public long streamLength() {
+			return bitmap.getByteLength() + 4 * 4;
+		}
+
+		/**
+		 * writes version 2 stream of the image
+		 */
+		public long save(OutputStream os) throws IOException {
+			ByteBuffer hdr = ByteBuffer.allocate(4 * 4);
+			hdr.putInt(-2); // version
+			hdr.putInt(numOfHashFunction);
+			hdr.putInt(numOfBits);
+			hdr.putInt(bitmap.length());
+			hdr.flip();
+
+			WritableByteChannel newChannel = Channels.newChannel(os);
+			long wrote = 0;
+			while (hdr.hasRemaining())
+				wrote += newChannel.write(hdr);
+
+			ByteBuffer chunk = ByteBuffer.allocate(PAGE_WORDS * 8);
+			for (int p = 0; p < pages.length(); p++) {
+				chunk.clear();
+				for (long word : page(p))
+					chunk.putLong(word);
+				chunk.flip();
+				while (chunk.hasRemaining())
+					wrote += newChannel.write(chunk);
+			}
+			return wrote;
+		}
+
+		/**
+		 * copies the image into a standalone filter
+		 */
+		public BloomFilter2<T> toBloomFilter2() {
+			long[] words = new long[bitmap.getWordCount()];
+			for (int p = 0; p < pages.length(); p++) {
+				long[] page = page(p);
+				System.arraycopy(page, 0, words, p << PAGE_SHIFT, page.length);
+			}
+			return new BloomFilter2<T>(numOfBits, numOfHashFunction, filter.firstFunction, filter.secondFunction,
+					new LongBitmap(bitmap.length(), words));
+		}
+
+		/**
+		 * stops copy-on-write. The image cannot be read after close.
+		 */
+		@Override
+		public void close() {
+			closed = true;
+			filter.release(this);
+		}
+
+		void preserve(int wordIndex) {
+			int p = wordIndex >> PAGE_SHIFT;
+			if (pages.get(p) == null)
+				pages.compareAndSet(p, null, copy(p));
+		}
+
+		private long[] page(int p) {
+			if (closed)
+				throw new IllegalStateException("snapshot is closed");
+
+			long[] page = pages.get(p);
+			if (page == null) {
+				pages.compareAndSet(p, null, copy(p));
+				page = pages.get(p);
+			}
+			return page;
+		}
+
+		private long[] copy(int p) {
+			int from = p << PAGE_SHIFT;
+			long[] page = new long[Math.min(PAGE_WORDS, bitmap.getWordCount() - from)];
+			for (int i = 0; i < page.length; i++)
+				page[i] = bitmap.getWord(from + i);
+			return page;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.araqne.bloomfilter.BloomFilter2.OptimumFinder;
+
+/**
+ * Counting bloom filter with packed 4-bit counters, which supports remove().
+ * Probing and sizing are the same as {@link BloomFilter2}, so
+ * {@link #toBloomFilter2()} exports a plain filter for read-only serving. A
+ * counter which reaches 15 is saturated and never decremented again, since
+ * its real count is unknown.
+ */
+public class CountingBloomFilter<T> {
+	private static final int MAX_COUNT = 15;
+
+	private int numOfBits;
+	private int numOfHashFunction;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	// 16 counters per word
+	private LongBitmap counters;
+
+	@SuppressWarnings("unchecked")
+	public CountingBloomFilter() {
+		this(GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	@SuppressWarnings("unchecked")
+	public CountingBloomFilter(long capacity) {
+		this(0.001, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public CountingBloomFilter(HashFunction<T> first, HashFunction<T> second) {
+		this(0.001, 1000000L, first, second);
+	}
+
+	public CountingBloomFilter(double errorRate, long capacity, HashFunction<T> first, HashFunction<T> second) {
+		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
+		if (opt.numOfBits > Integer.MAX_VALUE / 4)
+			throw new IllegalArgumentException("too large capacity for counting filter: " + capacity);
+
+		this.firstFunction = first;
+		this.secondFunction = second;
+		attach(new LongBitmap(opt.numOfBits * 4), opt.numOfBits, opt.numOfHashFunction);
+	}
+
+	@SuppressWarnings("unchecked")
+	public CountingBloomFilter(double errorRate, int capacity) {
+		this(errorRate, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	public void add(HashValue<T> v) {
+		add(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public void add(int firstHashCode, int secondHashCode) {
+		long[] words = counters.getWords();
+		for (int i = 0; i < numOfHashFunction; i++) {
+			int index = getIndex(firstHashCode, secondHashCode, i);
+			int shift = (index & 15) << 2;
+			long count = (words[index >> 4] >>> shift) & MAX_COUNT;
+			if (count < MAX_COUNT)
+				words[index >> 4] += 1L << shift;
+		}
+	}
+
+	public void add(T key) {
+		add(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public boolean remove(HashValue<T> v) {
+		return remove(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	/**
+	 * decrements counters of the key. returns false and changes nothing if
+	 * the key is not contained, because decrementing would drop other keys.
+	 */
+	public boolean remove(int firstHashCode, int secondHashCode) {
+		if (!contains(firstHashCode, secondHashCode))
+			return false;
+
+		long[] words = counters.getWords();
+		for (int i = 0; i < numOfHashFunction; i++) {
+			int index = getIndex(firstHashCode, secondHashCode, i);
+			int shift = (index & 15) << 2;
+			long count = (words[index >> 4] >>> shift) & MAX_COUNT;
+			if (count > 0 && count < MAX_COUNT)
+				words[index >> 4] -= 1L << shift;
+		}
+		return true;
+	}
+
+	public boolean remove(T key) {
+		return remove(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) {
+		if (numOfBits == 0)
+			return false;
+
+		long[] words = counters.getWords();
+		for (int i = 0; i < numOfHashFunction; i++) {
+			int index = getIndex(firstHashCode, secondHashCode, i);
+			if (((words[index >> 4] >>> ((index & 15) << 2)) & MAX_COUNT) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	public boolean contains(T key) {
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public int getCount(int index) {
+		return (int) ((counters.getWords()[index >> 4] >>> ((index & 15) << 2)) & MAX_COUNT);
+	}
+
+	public int getSaturatedCount() {
+		int saturated = 0;
+		for (int i = 0; i < numOfBits; i++)
+			if (getCount(i) == MAX_COUNT)
+				saturated++;
+		return saturated;
+	}
+
+	/**
+	 * compacts nonzero counters into a plain bitmap. The result answers
+	 * contains() exactly like this filter.
+	 */
+	public BloomFilter2<T> toBloomFilter2() {
+		long[] words = counters.getWords();
+		LongBitmap bitmap = new LongBitmap(numOfBits);
+		long[] bits = bitmap.getWords();
+		for (int w = 0; w < words.length; w++) {
+			long word = words[w];
+			if (word == 0)
+				continue;
+
+			long mask = 0;
+			for (int c = 0; c < 16; c++)
+				if (((word >>> (c << 2)) & MAX_COUNT) != 0)
+					mask |= 1L << c;
+
+			// 4 counter words per bitmap word
+			bits[w >> 2] |= mask << ((w & 3) << 4);
+		}
+
+		return new BloomFilter2<T>(numOfBits, numOfHashFunction, firstFunction, secondFunction, bitmap);
+	}
+
+	public LongBitmap getCounters() {
+		return counters;
+	}
+
+	public void load(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		int version = -dis.readInt();
+		if (version != 6)
+			throw new IllegalArgumentException("unsupported version: " + version);
+
+		int numOfHashFunc = dis.readInt();
+		int numOfBits = dis.readInt();
+		int streamLength = dis.readInt();
+
+		LongBitmap bm = new LongBitmap(numOfBits * 4);
+		bm.readWords(dis, Bitmap.wordCount(streamLength));
+		this.attach(bm, numOfBits, numOfHashFunc);
+	}
+
+	private void attach(LongBitmap counters, int numOfBits, int numOfHash) {
+		this.counters = counters;
+		this.numOfBits = numOfBits;
+		this.numOfHashFunction = numOfHash;
+	}
+
+	public long streamLength() {
+		return counters.getByteLength() + getStreamHeaderLength();
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 4;
+	}
+
+	public long save(OutputStream os) throws IOException {
+		ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+		hdr.putInt(-6); // version
+		hdr.putInt(numOfHashFunction);
+		hdr.putInt(numOfBits);
+		hdr.putInt(counters.length());
+		hdr.flip();
+
+		WritableByteChannel newChannel = Channels.newChannel(os);
+		newChannel.write(hdr);
+		long wrote = counters.writeTo(newChannel);
+		return wrote + getStreamHeaderLength();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CountingBloomFilter-[%d KB, %d hashFunctions (%s, %s)]", this.numOfBits / 2 / 1024,
+				this.numOfHashFunction, this.firstFunction.toString(), this.secondFunction.toString());
+	}
+
+	private int getIndex(int firstHashCode, int secondHashCode, int i) {
+		int index = (firstHashCode + (i * secondHashCode)) % this.numOfBits;
+		return (index < 0) ? -index : index;
+	}
+
+	public int getHashFuncCount() {
+		return numOfHashFunction;
+	}
+
+}
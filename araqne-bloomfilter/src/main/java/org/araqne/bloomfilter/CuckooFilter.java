@@ -0,0 +1,395 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Cuckoo filter (Fan et al.) with 4 fingerprints per bucket. A key is stored
+ * as a ceil(log2(8 / errorRate)) bit fingerprint in one of two candidate
+ * buckets, and the alternate bucket is hash(fingerprint) - index modulo bucket
+ * count, so lookups read two buckets and keys can be removed. Fingerprints are
+ * bit-packed and the bucket count is not rounded, so a filter takes about
+ * fingerprint bits / 0.95 bits per key. Fingerprint 0 means empty slot.
+ *
+ * When an insert gives up after {@link #MAX_KICKS} relocations, the evicted
+ * fingerprint is kept in a victim slot so that no key is lost, and add()
+ * returns false from then on. Stream format is version 8.
+ */
+public class CuckooFilter<T> {
+	private static final int BUCKET_SIZE = 4;
+	private static final int MIN_FINGERPRINT_BITS = 4;
+	private static final int MAX_FINGERPRINT_BITS = 32;
+	private static final int MAX_KICKS = 500;
+
+	// practical load factor of 4-way buckets
+	private static final double MAX_LOAD_FACTOR = 0.95;
+
+	private int numOfBuckets;
+	private int fingerprintBits;
+	private long fingerprintMask;
+	private int count;
+	private int victimIndex;
+	private int victimFingerprint;
+	private long seed = 0x2545f4914f6cdd1dL;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private long[] table;
+
+	@SuppressWarnings("unchecked")
+	public CuckooFilter() {
+		this(GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	@SuppressWarnings("unchecked")
+	public CuckooFilter(int capacity) {
+		this(0.001, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public CuckooFilter(HashFunction<T> first, HashFunction<T> second) {
+		this(0.001, 1000000, first, second);
+	}
+
+	@SuppressWarnings("unchecked")
+	public CuckooFilter(double errorRate, int capacity) {
+		this(errorRate, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public CuckooFilter(double errorRate, int capacity, HashFunction<T> first, HashFunction<T> second) {
+		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
+		this.firstFunction = first;
+		this.secondFunction = second;
+		attach(new long[tableWords(opt.numOfBuckets, opt.fingerprintBits)], opt.numOfBuckets, opt.fingerprintBits, 0);
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	public boolean add(HashValue<T> v) {
+		return add(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	/**
+	 * @return false if the filter is full. The key is still inserted (into
+	 *         the victim slot) on the first failure, but not afterwards.
+	 */
+	public boolean add(int firstHashCode, int secondHashCode) {
+		if (victimFingerprint != 0)
+			return false;
+
+		long h = BlockedBloomFilter.mix(firstHashCode, secondHashCode);
+		int fp = fingerprint(h);
+		int i1 = index(h);
+		if (insert(i1, fp) || insert(alternate(i1, fp), fp)) {
+			count++;
+			return true;
+		}
+
+		// relocate existing fingerprints
+		int i = (nextRandom() & 1) == 0 ? i1 : alternate(i1, fp);
+		for (int n = 0; n < MAX_KICKS; n++) {
+			int slot = nextRandom() & (BUCKET_SIZE - 1);
+			int evicted = get(i, slot);
+			set(i, slot, fp);
+			fp = evicted;
+			i = alternate(i, fp);
+			if (insert(i, fp)) {
+				count++;
+				return true;
+			}
+		}
+
+		victimIndex = i;
+		victimFingerprint = fp;
+		count++;
+		return false;
+	}
+
+	public boolean add(T key) {
+		return add(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) {
+		long h = BlockedBloomFilter.mix(firstHashCode, secondHashCode);
+		int fp = fingerprint(h);
+		int i1 = index(h);
+		int i2 = alternate(i1, fp);
+		if (victimFingerprint == fp && (victimIndex == i1 || victimIndex == i2))
+			return true;
+		return find(i1, fp) >= 0 || find(i2, fp) >= 0;
+	}
+
+	public boolean contains(T key) {
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public boolean remove(HashValue<T> v) {
+		return remove(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	/**
+	 * removes one copy of the key. Removing a key which was never added may
+	 * remove another key with same fingerprint.
+	 *
+	 * @return false if the key is not contained
+	 */
+	public boolean remove(int firstHashCode, int secondHashCode) {
+		long h = BlockedBloomFilter.mix(firstHashCode, secondHashCode);
+		int fp = fingerprint(h);
+		int i1 = index(h);
+		int i2 = alternate(i1, fp);
+
+		if (victimFingerprint == fp && (victimIndex == i1 || victimIndex == i2)) {
+			victimFingerprint = 0;
+			count--;
+			return true;
+		}
+
+		int slot = find(i1, fp);
+		int i = i1;
+		if (slot < 0) {
+			slot = find(i2, fp);
+			i = i2;
+		}
+
+		if (slot < 0)
+			return false;
+
+		set(i, slot, 0);
+		count--;
+
+		// victim may fit into the freed slot now
+		if (victimFingerprint != 0) {
+			int victim = victimFingerprint;
+			if (insert(victimIndex, victim) || insert(alternate(victimIndex, victim), victim))
+				victimFingerprint = 0;
+		}
+		return true;
+	}
+
+	public boolean remove(T key) {
+		return remove(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getNumOfBuckets() {
+		return numOfBuckets;
+	}
+
+	public int getFingerprintBits() {
+		return fingerprintBits;
+	}
+
+	public double getLoadFactor() {
+		return (double) count / (numOfBuckets * BUCKET_SIZE);
+	}
+
+	public boolean isFull() {
+		return victimFingerprint != 0;
+	}
+
+	public double getBitsPerKey() {
+		return count == 0 ? 0 : table.length * 64.0 / count;
+	}
+
+	/**
+	 * returns bit-packed fingerprints. Slot n of the table starts at bit n *
+	 * fingerprint bits, counting from the least significant bit of word 0.
+	 */
+	public long[] getTable() {
+		return table;
+	}
+
+	public void load(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		int version = -dis.readInt();
+		if (version != 8)
+			throw new IllegalArgumentException("unsupported version: " + version);
+
+		int fingerprintBits = dis.readInt();
+		int numOfBuckets = dis.readInt();
+		int count = dis.readInt();
+		int victimIndex = dis.readInt();
+		int victimFingerprint = dis.readInt();
+		if (fingerprintBits < MIN_FINGERPRINT_BITS || fingerprintBits > MAX_FINGERPRINT_BITS)
+			throw new IllegalArgumentException("invalid fingerprint bits: " + fingerprintBits);
+		if (numOfBuckets <= 0 || numOfBuckets > Integer.MAX_VALUE / BUCKET_SIZE)
+			throw new IllegalArgumentException("invalid bucket count: " + numOfBuckets);
+
+		long[] table = new long[tableWords(numOfBuckets, fingerprintBits)];
+		for (int i = 0; i < table.length; i++)
+			table[i] = dis.readLong();
+		attach(table, numOfBuckets, fingerprintBits, count);
+		this.victimIndex = victimIndex;
+		this.victimFingerprint = victimFingerprint;
+	}
+
+	private void attach(long[] table, int numOfBuckets, int fingerprintBits, int count) {
+		this.table = table;
+		this.numOfBuckets = numOfBuckets;
+		this.fingerprintBits = fingerprintBits;
+		this.fingerprintMask = (1L << fingerprintBits) - 1;
+		this.count = count;
+		this.victimIndex = 0;
+		this.victimFingerprint = 0;
+	}
+
+	public long streamLength() {
+		return table.length * 8L + getStreamHeaderLength();
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 6;
+	}
+
+	public long save(OutputStream os) throws IOException {
+		ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+		hdr.putInt(-8); // version
+		hdr.putInt(fingerprintBits);
+		hdr.putInt(numOfBuckets);
+		hdr.putInt(count);
+		hdr.putInt(victimIndex);
+		hdr.putInt(victimFingerprint);
+		hdr.flip();
+
+		WritableByteChannel newChannel = Channels.newChannel(os);
+		newChannel.write(hdr);
+
+		ByteBuffer chunk = ByteBuffer.allocate(Bitmap.CHUNK_SIZE);
+		long wrote = 0;
+		for (int i = 0; i < table.length; i++) {
+			chunk.putLong(table[i]);
+			if (!chunk.hasRemaining() || i == table.length - 1) {
+				chunk.flip();
+				while (chunk.hasRemaining())
+					wrote += newChannel.write(chunk);
+				chunk.clear();
+			}
+		}
+		return wrote + getStreamHeaderLength();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CuckooFilter-[%d KB, %d buckets, %d bit fingerprints (%s, %s)]",
+				this.table.length / 128, this.numOfBuckets, this.fingerprintBits,
+				this.firstFunction.toString(), this.secondFunction.toString());
+	}
+
+	// uniform in [1, 2^f), since 0 is reserved for empty slot
+	private int fingerprint(long h) {
+		return (int) (((h & 0xffffffffL) * fingerprintMask) >>> 32) + 1;
+	}
+
+	private int index(long h) {
+		return reduce(h >>> 32);
+	}
+
+	/**
+	 * (hash(fp) - index) mod buckets is its own inverse, so it works for any
+	 * bucket count, unlike xor which needs power of two
+	 */
+	private int alternate(int index, int fingerprint) {
+		int alt = reduce(FastHashFunction.fmix64(fingerprint) >>> 32) - index;
+		return alt < 0 ? alt + numOfBuckets : alt;
+	}
+
+	// maps 32-bit hash to [0, buckets) without division
+	private int reduce(long hash32) {
+		return (int) ((hash32 * numOfBuckets) >>> 32);
+	}
+
+	private int get(int bucket, int slot) {
+		long pos = ((long) bucket * BUCKET_SIZE + slot) * fingerprintBits;
+		int i = (int) (pos >>> 6);
+		int shift = (int) pos & 63;
+		long v = table[i] >>> shift;
+		if (shift + fingerprintBits > 64)
+			v |= table[i + 1] << (64 - shift);
+		return (int) (v & fingerprintMask);
+	}
+
+	private void set(int bucket, int slot, int fingerprint) {
+		long pos = ((long) bucket * BUCKET_SIZE + slot) * fingerprintBits;
+		int i = (int) (pos >>> 6);
+		int shift = (int) pos & 63;
+		long fp = fingerprint & fingerprintMask;
+		table[i] = (table[i] & ~(fingerprintMask << shift)) | (fp << shift);
+		if (shift + fingerprintBits > 64) {
+			int spill = 64 - shift;
+			table[i + 1] = (table[i + 1] & ~(fingerprintMask >>> spill)) | (fp >>> spill);
+		}
+	}
+
+	private static int tableWords(int numOfBuckets, int fingerprintBits) {
+		long bits = (long) numOfBuckets * BUCKET_SIZE * fingerprintBits;
+		return (int) ((bits + 63) >>> 6);
+	}
+
+	private boolean insert(int bucket, int fingerprint) {
+		for (int slot = 0; slot < BUCKET_SIZE; slot++) {
+			if (get(bucket, slot) == 0) {
+				set(bucket, slot, fingerprint);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int find(int bucket, int fingerprint) {
+		for (int slot = 0; slot < BUCKET_SIZE; slot++)
+			if (get(bucket, slot) == fingerprint)
+				return slot;
+		return -1;
+	}
+
+	private int nextRandom() {
+		// xorshift, deterministic so that same key sequence gives same table
+		seed ^= seed << 13;
+		seed ^= seed >>> 7;
+		seed ^= seed << 17;
+		return (int) seed;
+	}
+
+	static class OptimumFinder {
+		int numOfBuckets;
+		int fingerprintBits;
+
+		OptimumFinder(double errorRate, int capacity) {
+			// upper bound of false positive rate is 2 * bucket size / 2^f
+			int f = (int) Math.ceil(Math.log(2 * BUCKET_SIZE / errorRate) / Math.log(2));
+			fingerprintBits = Math.max(MIN_FINGERPRINT_BITS, Math.min(MAX_FINGERPRINT_BITS, f));
+
+			long buckets = (long) Math.ceil(capacity / (BUCKET_SIZE * MAX_LOAD_FACTOR));
+			numOfBuckets = (int) Math.max(1, Math.min(buckets, Integer.MAX_VALUE / BUCKET_SIZE));
+		}
+	}
+
+}
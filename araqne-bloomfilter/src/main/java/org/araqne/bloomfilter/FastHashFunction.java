@@ -0,0 +1,296 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+/**
+ * Single pass 64-bit hash functions. String variants hash UTF-16 code units
+ * in little endian order without encoding the string, so they are equal to
+ * the byte[] variants applied to UTF-16LE bytes.
+ */
+public abstract class FastHashFunction {
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private static final long P1 = 0x9E3779B185EBCA87L;
+	private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long P3 = 0x165667B19E3779F9L;
+	private static final long P4 = 0x85EBCA77C2B2AE63L;
+	private static final long P5 = 0x27D4EB2F165667C5L;
+
+	/**
+	 * first 64 bits of MurmurHash3 x64_128, seed 0
+	 */
+	public static HashFunction64<String> Murmur3 = new HashFunction64<String>() {
+		@Override
+		public long hashCode64(String key) {
+			int len = key.length();
+			long h1 = 0;
+			long h2 = 0;
+
+			int i = 0;
+			for (; i + 8 <= len; i += 8) {
+				long k1 = chars(key, i);
+				long k2 = chars(key, i + 4);
+				h1 = murmurBlock1(h1, h2, k1);
+				h2 = murmurBlock2(h1, h2, k2);
+			}
+
+			if (i < len) {
+				long k1 = 0;
+				long k2 = 0;
+				for (int j = 0; i + j < len; j++) {
+					long c = key.charAt(i + j);
+					if (j < 4)
+						k1 |= c << (16 * j);
+					else
+						k2 |= c << (16 * (j - 4));
+				}
+
+				if (len - i > 4)
+					h2 ^= mixK2(k2);
+				h1 ^= mixK1(k1);
+			}
+
+			return murmurFinish(h1, h2, len * 2L);
+		}
+
+		@Override
+		public String toString() {
+			return "Murmur3";
+		}
+	};
+
+	public static HashFunction64<byte[]> Murmur3Bytes = new HashFunction64<byte[]>() {
+		@Override
+		public long hashCode64(byte[] key) {
+			int len = key.length;
+			long h1 = 0;
+			long h2 = 0;
+
+			int i = 0;
+			for (; i + 16 <= len; i += 16) {
+				long k1 = bytes(key, i, 8);
+				long k2 = bytes(key, i + 8, 8);
+				h1 = murmurBlock1(h1, h2, k1);
+				h2 = murmurBlock2(h1, h2, k2);
+			}
+
+			int tail = len - i;
+			if (tail > 8)
+				h2 ^= mixK2(bytes(key, i + 8, tail - 8));
+			if (tail > 0)
+				h1 ^= mixK1(bytes(key, i, Math.min(tail, 8)));
+
+			return murmurFinish(h1, h2, len);
+		}
+
+		@Override
+		public String toString() {
+			return "Murmur3";
+		}
+	};
+
+	/**
+	 * XXH64, seed 0
+	 */
+	public static HashFunction64<String> XXHash64 = new HashFunction64<String>() {
+		@Override
+		public long hashCode64(String key) {
+			int len = key.length();
+			int i = 0;
+			long h;
+			if (len >= 16) {
+				long v1 = P1 + P2;
+				long v2 = P2;
+				long v3 = 0;
+				long v4 = -P1;
+				for (; i + 16 <= len; i += 16) {
+					v1 = xxRound(v1, chars(key, i));
+					v2 = xxRound(v2, chars(key, i + 4));
+					v3 = xxRound(v3, chars(key, i + 8));
+					v4 = xxRound(v4, chars(key, i + 12));
+				}
+				h = xxMerge(v1, v2, v3, v4);
+			} else {
+				h = P5;
+			}
+
+			h += len * 2L;
+			for (; i + 4 <= len; i += 4)
+				h = xxLane(h, chars(key, i));
+
+			if (i + 2 <= len) {
+				h = xxInt(h, key.charAt(i) | ((long) key.charAt(i + 1) << 16));
+				i += 2;
+			}
+
+			if (i < len) {
+				char c = key.charAt(i);
+				h = xxByte(h, c & 0xff);
+				h = xxByte(h, c >>> 8);
+			}
+
+			return xxAvalanche(h);
+		}
+
+		@Override
+		public String toString() {
+			return "XXHash64";
+		}
+	};
+
+	public static HashFunction64<byte[]> XXHash64Bytes = new HashFunction64<byte[]>() {
+		@Override
+		public long hashCode64(byte[] key) {
+			int len = key.length;
+			int i = 0;
+			long h;
+			if (len >= 32) {
+				long v1 = P1 + P2;
+				long v2 = P2;
+				long v3 = 0;
+				long v4 = -P1;
+				for (; i + 32 <= len; i += 32) {
+					v1 = xxRound(v1, bytes(key, i, 8));
+					v2 = xxRound(v2, bytes(key, i + 8, 8));
+					v3 = xxRound(v3, bytes(key, i + 16, 8));
+					v4 = xxRound(v4, bytes(key, i + 24, 8));
+				}
+				h = xxMerge(v1, v2, v3, v4);
+			} else {
+				h = P5;
+			}
+
+			h += len;
+			for (; i + 8 <= len; i += 8)
+				h = xxLane(h, bytes(key, i, 8));
+
+			if (i + 4 <= len) {
+				h = xxInt(h, bytes(key, i, 4));
+				i += 4;
+			}
+
+			for (; i < len; i++)
+				h = xxByte(h, key[i] & 0xff);
+
+			return xxAvalanche(h);
+		}
+
+		@Override
+		public String toString() {
+			return "XXHash64";
+		}
+	};
+
+	public static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static long chars(String s, int i) {
+		return s.charAt(i) | ((long) s.charAt(i + 1) << 16) | ((long) s.charAt(i + 2) << 32)
+				| ((long) s.charAt(i + 3) << 48);
+	}
+
+	private static long bytes(byte[] b, int offset, int len) {
+		long l = 0;
+		for (int i = 0; i < len; i++)
+			l |= (b[offset + i] & 0xffL) << (8 * i);
+		return l;
+	}
+
+	private static long mixK1(long k1) {
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		k1 *= C2;
+		return k1;
+	}
+
+	private static long mixK2(long k2) {
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		k2 *= C1;
+		return k2;
+	}
+
+	private static long murmurBlock1(long h1, long h2, long k1) {
+		h1 ^= mixK1(k1);
+		h1 = Long.rotateLeft(h1, 27);
+		h1 += h2;
+		return h1 * 5 + 0x52dce729;
+	}
+
+	private static long murmurBlock2(long h1, long h2, long k2) {
+		h2 ^= mixK2(k2);
+		h2 = Long.rotateLeft(h2, 31);
+		h2 += h1;
+		return h2 * 5 + 0x38495ab5;
+	}
+
+	private static long murmurFinish(long h1, long h2, long len) {
+		h1 ^= len;
+		h2 ^= len;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+		h1 += h2;
+		return h1;
+	}
+
+	private static long xxRound(long acc, long lane) {
+		acc += lane * P2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * P1;
+	}
+
+	private static long xxMerge(long v1, long v2, long v3, long v4) {
+		long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+		h = (h ^ xxRound(0, v1)) * P1 + P4;
+		h = (h ^ xxRound(0, v2)) * P1 + P4;
+		h = (h ^ xxRound(0, v3)) * P1 + P4;
+		h = (h ^ xxRound(0, v4)) * P1 + P4;
+		return h;
+	}
+
+	private static long xxLane(long h, long lane) {
+		h ^= xxRound(0, lane);
+		return Long.rotateLeft(h, 27) * P1 + P4;
+	}
+
+	private static long xxInt(long h, long i) {
+		h ^= (i & 0xFFFFFFFFL) * P1;
+		return Long.rotateLeft(h, 23) * P2 + P3;
+	}
+
+	private static long xxByte(long h, int b) {
+		h ^= b * P5;
+		return Long.rotateLeft(h, 11) * P1;
+	}
+
+	private static long xxAvalanche(long h) {
+		h ^= h >>> 33;
+		h *= P2;
+		h ^= h >>> 29;
+		h *= P3;
+		h ^= h >>> 32;
+		return h;
+	}
+}
@@ -35,6 +35,16 @@ public class HashValue<T> {
 		secondHashCode = secondFunction.hashCode(key);
 	}
 
+	/**
+	 * splits one 64-bit hash into two non-negative 31-bit hash codes, so the
+	 * key is scanned only once
+	 */
+	public HashValue(T key, HashFunction64<T> function) {
+		long h = function.hashCode64(key);
+		firstHashCode = first(h);
+		secondHashCode = second(h);
+	}
+
 	public HashValue(int i, int j) {
 		firstHashCode = i;
 		secondHashCode = j;
@@ -48,4 +58,12 @@ public class HashValue<T> {
 		return secondHashCode;
 	}
 
+	static int first(long hash64) {
+		return (int) (hash64 >>> 33);
+	}
+
+	static int second(long hash64) {
+		return (int) hash64 & Integer.MAX_VALUE;
+	}
+
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+/**
+ * {@link BloomFilter} wrapper which counts adds and queries. See
+ * {@link BloomFilterStats#register(String)} to expose it with JMX.
+ */
+public class InstrumentedBloomFilter<T> extends BloomFilterStats {
+	private final BloomFilter<T> filter;
+
+	public InstrumentedBloomFilter(BloomFilter<T> filter) {
+		this.filter = filter;
+	}
+
+	public BloomFilter<T> getFilter() {
+		return filter;
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return filter.getHashValue(key);
+	}
+
+	public void add(HashValue<T> v) {
+		filter.add(v);
+		countAdd();
+	}
+
+	public void add(int firstHashCode, int secondHashCode) {
+		filter.add(firstHashCode, secondHashCode);
+		countAdd();
+	}
+
+	public void add(T key) {
+		filter.add(key);
+		countAdd();
+	}
+
+	public boolean contains(HashValue<T> v) {
+		return countQuery(filter.contains(v));
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) {
+		return countQuery(filter.contains(firstHashCode, secondHashCode));
+	}
+
+	public boolean contains(T key) {
+		return countQuery(filter.contains(key));
+	}
+
+	@Override
+	public int getNumOfBits() {
+		return filter.getNumOfBits();
+	}
+
+	@Override
+	public int getHashFuncCount() {
+		return filter.getHashFuncCount();
+	}
+
+	@Override
+	public long getBitCount() {
+		return filter.getBitmap().cardinality();
+	}
+
+	@Override
+	public String toString() {
+		return "Instrumented" + filter.toString();
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+/**
+ * Bloom filter for primitive int keys such as IPv4 addresses. An int key is
+ * hashed as the equal long key, so the bitmap and stream format are shared
+ * with {@link LongBloomFilter}.
+ */
+public class IntBloomFilter extends LongBloomFilter {
+	public IntBloomFilter() {
+		super();
+	}
+
+	public IntBloomFilter(long capacity) {
+		super(capacity);
+	}
+
+	public IntBloomFilter(double errorRate, long capacity) {
+		super(errorRate, capacity);
+	}
+
+	public void add(int key) {
+		add((long) key);
+	}
+
+	public boolean contains(int key) {
+		return contains((long) key);
+	}
+}
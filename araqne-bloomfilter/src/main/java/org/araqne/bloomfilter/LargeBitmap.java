@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Long-indexed bitmap split into fixed size long[] segments, so it can hold
+ * more than 2^31 bits. Word layout is the same as {@link LongBitmap}.
+ */
+public class LargeBitmap {
+	// 8MB per segment
+	private static final int DEFAULT_SEGMENT_SHIFT = 20;
+
+	private final long bits;
+	private final long wordCount;
+	private final int segmentShift;
+	private final long segmentMask;
+	private final long[][] segments;
+
+	public LargeBitmap(long bits) {
+		this(bits, DEFAULT_SEGMENT_SHIFT);
+	}
+
+	LargeBitmap(long bits, int segmentShift) {
+		this.bits = bits;
+		this.wordCount = (bits >>> 6) + ((bits & 63) != 0 ? 1 : 0);
+		this.segmentShift = segmentShift;
+		this.segmentMask = (1L << segmentShift) - 1;
+
+		long segmentCount = (wordCount >>> segmentShift) + ((wordCount & segmentMask) != 0 ? 1 : 0);
+		this.segments = new long[(int) segmentCount][];
+		for (int i = 0; i < segments.length; i++) {
+			long remain = wordCount - ((long) i << segmentShift);
+			segments[i] = new long[(int) Math.min(remain, 1L << segmentShift)];
+		}
+	}
+
+	public long length() {
+		return wordCount * 64;
+	}
+
+	public long getByteLength() {
+		return wordCount * 8;
+	}
+
+	public long getWordCount() {
+		return wordCount;
+	}
+
+	public long getWord(long index) {
+		return segments[(int) (index >>> segmentShift)][(int) (index & segmentMask)];
+	}
+
+	public void setWord(long index, long word) {
+		segments[(int) (index >>> segmentShift)][(int) (index & segmentMask)] = word;
+	}
+
+	public boolean get(long index) {
+		long word = index >>> 6;
+		return (segments[(int) (word >>> segmentShift)][(int) (word & segmentMask)] & (1L << index)) != 0;
+	}
+
+	public void set(long index) {
+		if (index < 0)
+			throw new IndexOutOfBoundsException("bitIndex < 0: " + index);
+
+		if (index >= bits)
+			throw new IndexOutOfBoundsException("bitIndex > max bits: " + index);
+
+		long word = index >>> 6;
+		segments[(int) (word >>> segmentShift)][(int) (word & segmentMask)] |= 1L << index;
+	}
+
+	public long writeTo(WritableByteChannel channel) throws IOException {
+		long wrote = 0;
+		ByteBuffer chunk = ByteBuffer.allocate(Bitmap.CHUNK_SIZE);
+		LongBuffer longs = chunk.asLongBuffer();
+		for (long[] words : segments) {
+			for (int offset = 0; offset < words.length;) {
+				int count = Math.min(longs.capacity(), words.length - offset);
+				longs.clear();
+				longs.put(words, offset, count);
+				offset += count;
+
+				chunk.clear();
+				chunk.limit(count * 8);
+				while (chunk.hasRemaining())
+					wrote += channel.write(chunk);
+			}
+		}
+		return wrote;
+	}
+
+	void readWords(DataInputStream dis, long count) throws IOException {
+		byte[] chunk = new byte[Bitmap.CHUNK_SIZE];
+		LongBuffer longs = ByteBuffer.wrap(chunk).asLongBuffer();
+		count = Math.min(count, wordCount);
+		long read = 0;
+		for (long[] words : segments) {
+			for (int offset = 0; offset < words.length && read < count;) {
+				int n = (int) Math.min(Math.min(longs.capacity(), words.length - offset), count - read);
+				int got = Bitmap.readChunk(dis, chunk, n * 8) / 8;
+
+				longs.clear();
+				longs.get(words, offset, got);
+				if (got < n)
+					return;
+
+				offset += n;
+				read += n;
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Bloom filter which is not limited to 2^31 bits. Bit indexes are 64-bit and
+ * derived from one {@link HashFunction64} value by double hashing, and the
+ * bitmap is segmented over several long arrays. Stream format is version 5,
+ * which has long numOfBits and stream length fields.
+ */
+public class LargeBloomFilter<T> {
+	private long numOfBits;
+	private int numOfHashFunction;
+	private final HashFunction64<T> function;
+	private LargeBitmap bitmap;
+
+	public LargeBloomFilter() {
+		this(0.001, 1000000L);
+	}
+
+	public LargeBloomFilter(long capacity) {
+		this(0.001, capacity);
+	}
+
+	@SuppressWarnings("unchecked")
+	public LargeBloomFilter(double errorRate, long capacity) {
+		this(errorRate, capacity, (HashFunction64<T>) (HashFunction64<?>) FastHashFunction.Murmur3);
+	}
+
+	public LargeBloomFilter(double errorRate, long capacity, HashFunction64<T> function) {
+		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
+		this.function = function;
+		attach(new LargeBitmap(opt.numOfBits), opt.numOfBits, opt.numOfHashFunction);
+	}
+
+	LargeBloomFilter(double errorRate, long capacity, HashFunction64<T> function, int segmentShift) {
+		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
+		this.function = function;
+		attach(new LargeBitmap(opt.numOfBits, segmentShift), opt.numOfBits, opt.numOfHashFunction);
+	}
+
+	public long getHashCode64(T key) {
+		return function.hashCode64(key);
+	}
+
+	public void addHash(long hashCode64) {
+		long h2 = FastHashFunction.fmix64(hashCode64) | 1;
+		for (int i = 0; i < numOfHashFunction; i++) {
+			long index = getIndex(hashCode64, h2, i);
+			this.bitmap.set(index);
+		}
+	}
+
+	public void add(T key) {
+		addHash(function.hashCode64(key));
+	}
+
+	public boolean containsHash(long hashCode64) {
+		if (numOfBits == 0)
+			return false;
+
+		long h2 = FastHashFunction.fmix64(hashCode64) | 1;
+		for (int i = 0; i < numOfHashFunction; i++) {
+			long index = getIndex(hashCode64, h2, i);
+			if (this.bitmap.get(index) == false)
+				return false;
+		}
+		return true;
+	}
+
+	public boolean contains(T key) {
+		return containsHash(function.hashCode64(key));
+	}
+
+	public LargeBitmap getBitmap() {
+		return bitmap;
+	}
+
+	public long getNumOfBits() {
+		return numOfBits;
+	}
+
+	public void load(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		int version = -dis.readInt();
+		if (version != 5)
+			throw new IllegalArgumentException("unsupported version: " + version);
+
+		int numOfHashFunc = dis.readInt();
+		long numOfBits = dis.readLong();
+		long streamLength = dis.readLong();
+
+		LargeBitmap bm = new LargeBitmap(Math.max(numOfBits, streamLength));
+		bm.readWords(dis, (streamLength >>> 6) + ((streamLength & 63) != 0 ? 1 : 0));
+		this.attach(bm, numOfBits, numOfHashFunc);
+	}
+
+	private void attach(LargeBitmap bm, long numOfBits, int numOfHash) {
+		this.bitmap = bm;
+		this.numOfBits = numOfBits;
+		this.numOfHashFunction = numOfHash;
+	}
+
+	public long streamLength() {
+		return bitmap.getByteLength() + getStreamHeaderLength();
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 2 + 8 * 2;
+	}
+
+	public long save(OutputStream os) throws IOException {
+		ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+		hdr.putInt(-5); // version
+		hdr.putInt(numOfHashFunction);
+		hdr.putLong(numOfBits);
+		hdr.putLong(bitmap.length());
+		hdr.flip();
+
+		WritableByteChannel newChannel = Channels.newChannel(os);
+		newChannel.write(hdr);
+		long wrote = bitmap.writeTo(newChannel);
+		return wrote + getStreamHeaderLength();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("LargeBloomFilter-[%d KB, %d hashFunctions (%s)]", this.numOfBits / 8 / 1024,
+				this.numOfHashFunction, this.function.toString());
+	}
+
+	private long getIndex(long firstHashCode, long secondHashCode, int i) {
+		return ((firstHashCode + i * secondHashCode) & Long.MAX_VALUE) % this.numOfBits;
+	}
+
+	static class OptimumFinder {
+		long numOfBits;
+		int numOfHashFunction;
+
+		OptimumFinder(double errorRate, long capacity) {
+			numOfBits = Long.MAX_VALUE;
+			numOfHashFunction = 1;
+			long m = 0;
+
+			for (int k = 1; k < 20; k++) {
+				m = (long) (k * capacity * -1.0 / java.lang.Math.log(1.0 - java.lang.Math.pow(errorRate, (1.0 / k))));
+
+				if (m < numOfBits) {
+					numOfBits = m;
+					numOfHashFunction = k;
+				}
+			}
+		}
+	}
+
+	public int getHashFuncCount() {
+		return numOfHashFunction;
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Heap bitmap on native 64-bit words. get() and set() are one array access
+ * and one mask, and conversion to the big endian version 2 stream layout
+ * happens only in {@link #writeTo(WritableByteChannel)} and
+ * {@link #getBytes()}.
+ */
+public class LongBitmap extends Bitmap {
+	private final long[] words;
+
+	public LongBitmap(int bits) {
+		this(bits, new long[wordCount(bits)]);
+	}
+
+	public LongBitmap(int bits, long[] words) {
+		super(bits, null);
+		this.words = words;
+	}
+
+	public long[] getWords() {
+		return words;
+	}
+
+	/**
+	 * returns a copy in version 2 stream layout. modifying the returned buffer
+	 * does not affect the bitmap.
+	 */
+	@Override
+	public ByteBuffer getBytes() {
+		ByteBuffer bb = ByteBuffer.allocate(getByteLength());
+		bb.asLongBuffer().put(words);
+		return bb;
+	}
+
+	@Override
+	public int length() {
+		return words.length * 64;
+	}
+
+	@Override
+	public int getByteLength() {
+		return words.length * 8;
+	}
+
+	@Override
+	public int getWordCount() {
+		return words.length;
+	}
+
+	@Override
+	public long getWord(int index) {
+		return words[index];
+	}
+
+	@Override
+	public void setWord(int index, long word) {
+		words[index] = word;
+	}
+
+	@Override
+	public boolean get(int index) {
+		return (words[index >> 6] & (1L << index)) != 0;
+	}
+
+	@Override
+	public void set(int index) {
+		words[index >> 6] |= 1L << index;
+	}
+
+	@Override
+	public long writeTo(WritableByteChannel channel) throws IOException {
+		long wrote = 0;
+		ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		LongBuffer longs = chunk.asLongBuffer();
+		for (int offset = 0; offset < words.length;) {
+			int count = Math.min(longs.capacity(), words.length - offset);
+			longs.clear();
+			longs.put(words, offset, count);
+			offset += count;
+
+			chunk.clear();
+			chunk.limit(count * 8);
+			while (chunk.hasRemaining())
+				wrote += channel.write(chunk);
+		}
+		return wrote;
+	}
+}
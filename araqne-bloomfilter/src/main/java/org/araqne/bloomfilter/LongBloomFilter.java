@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.araqne.bloomfilter.BloomFilter2.OptimumFinder;
+
+/**
+ * Bloom filter for primitive long keys. Keys are mixed with murmur3 fmix64
+ * into two hash codes, so add() and contains() neither box nor allocate. The
+ * stream format is BloomFilter2 version 2.
+ */
+public class LongBloomFilter {
+	private int numOfBits;
+	private int numOfHashFunction;
+	private LongBitmap bitmap;
+
+	public LongBloomFilter() {
+		this(0.001, 1000000L);
+	}
+
+	public LongBloomFilter(long capacity) {
+		this(0.001, capacity);
+	}
+
+	public LongBloomFilter(double errorRate, long capacity) {
+		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
+		attach(new LongBitmap(opt.numOfBits), opt.numOfBits, opt.numOfHashFunction);
+	}
+
+	public void add(long key) {
+		long h = FastHashFunction.fmix64(key);
+		int first = HashValue.first(h);
+		int second = step(h);
+		for (int i = 0; i < numOfHashFunction; i++) {
+			int index = getIndex(first, second, i);
+			this.bitmap.set(index);
+		}
+	}
+
+	public boolean contains(long key) {
+		if (numOfBits == 0)
+			return false;
+
+		long h = FastHashFunction.fmix64(key);
+		int first = HashValue.first(h);
+		int second = step(h);
+		for (int i = 0; i < numOfHashFunction; i++) {
+			int index = getIndex(first, second, i);
+			if (this.bitmap.get(index) == false)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * odd step, so that probes never collapse to one bit even when mixed
+	 * hash is 0 as for key 0
+	 */
+	private static int step(long h) {
+		return HashValue.second(h) | 1;
+	}
+
+	public LongBitmap getBitmap() {
+		return bitmap;
+	}
+
+	public void load(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		int version = -dis.readInt();
+		if (version != 2)
+			throw new IllegalArgumentException("unsupported version: " + version);
+
+		int numOfHashFunc = dis.readInt();
+		int numOfBits = dis.readInt();
+		int streamLength = dis.readInt();
+
+		LongBitmap bm = new LongBitmap(Math.max(numOfBits, streamLength));
+		bm.readWords(dis, Bitmap.wordCount(streamLength));
+		this.attach(bm, numOfBits, numOfHashFunc);
+	}
+
+	private void attach(LongBitmap bm, int numOfBits, int numOfHash) {
+		this.bitmap = bm;
+		this.numOfBits = numOfBits;
+		this.numOfHashFunction = numOfHash;
+	}
+
+	public long streamLength() {
+		return bitmap.getByteLength() + getStreamHeaderLength();
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 4;
+	}
+
+	public long save(OutputStream os) throws IOException {
+		ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+		hdr.putInt(-2); // version
+		hdr.putInt(numOfHashFunction);
+		hdr.putInt(numOfBits);
+		hdr.putInt(bitmap.length());
+		hdr.flip();
+
+		WritableByteChannel newChannel = Channels.newChannel(os);
+		newChannel.write(hdr);
+		long wrote = bitmap.writeTo(newChannel);
+		return wrote + getStreamHeaderLength();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s-[%d KB, %d hashFunctions (fmix64)]", getClass().getSimpleName(), this.numOfBits / 8 / 1024,
+				this.numOfHashFunction);
+	}
+
+	private int getIndex(int firstHashCode, int secondHashCode, int i) {
+		int index = (firstHashCode + (i * secondHashCode)) % this.numOfBits;
+		return (index < 0) ? -index : index;
+	}
+
+	public int getHashFuncCount() {
+		return numOfHashFunction;
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded cache of bitmap pages which can be shared by many
+ * {@link PagedBloomFilter}s. A page is a fixed size range of a filter payload
+ * decoded into long words, and is read with a positional file channel read on
+ * miss.
+ * 
+ * Each filter owns a page table indexed by page number, so a hit is one array
+ * read without lock or key allocation. Pages are evicted in CLOCK order: a hit
+ * or a load sets the reference bit of the page, and the clock hand gives
+ * referenced pages a second chance. Only misses take the cache lock.
+ */
+public class PageCache {
+	private static final int DEFAULT_PAGE_SIZE = 4096;
+
+	private final int pageSize;
+	private final int maxPages;
+	private final StripedCounter hits = new StripedCounter();
+	private final StripedCounter misses = new StripedCounter();
+	private final long[] zeroPage;
+
+	// guarded by this
+	private final Page[] clock;
+	private int hand;
+	private int pageCount;
+
+	public PageCache(long maxBytes) {
+		this(DEFAULT_PAGE_SIZE, maxBytes);
+	}
+
+	public PageCache(int pageSize, long maxBytes) {
+		if (pageSize <= 0 || pageSize % 8 != 0)
+			throw new IllegalArgumentException("page size should be positive multiple of 8: " + pageSize);
+
+		this.pageSize = pageSize;
+		this.maxPages = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, maxBytes / pageSize));
+		this.clock = new Page[maxPages];
+		this.zeroPage = new long[pageSize / 8];
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getMaxPages() {
+		return maxPages;
+	}
+
+	public synchronized int getPageCount() {
+		return pageCount;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public double getHitRatio() {
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+
+	public void resetCounters() {
+		hits.reset();
+		misses.reset();
+	}
+
+	/**
+	 * registers payload of a filter file. Pages of the returned owner are
+	 * cached until it is invalidated.
+	 */
+	Owner register(FileChannel channel, long payloadOffset, long payloadLength) {
+		long count = (payloadLength + pageSize - 1) / pageSize;
+		if (count > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("too many pages: " + count);
+
+		return new Owner(channel, payloadOffset, payloadLength, (int) count);
+	}
+
+	/**
+	 * returns words of the page, reading it from channel on miss. Bytes past
+	 * payload length are zero.
+	 */
+	long[] getPage(Owner owner, int page) throws IOException {
+		if (page >= owner.pages.length())
+			return zeroPage;
+
+		Page p = owner.pages.get(page);
+		if (p != null) {
+			// avoid a store on every hit of a hot page
+			if (!p.referenced)
+				p.referenced = true;
+			hits.increment();
+			return p.words;
+		}
+
+		// read outside lock, so that other pages are served meanwhile
+		misses.increment();
+		long[] words = readPage(owner, page);
+		return cache(new Page(owner, page, words));
+	}
+
+	/**
+	 * drops all pages of closed filter. A read in flight for the owner is not
+	 * cached after this returns.
+	 */
+	synchronized void invalidate(Owner owner) {
+		owner.closed = true;
+		for (int i = 0; i < owner.pages.length(); i++) {
+			Page p = owner.pages.getAndSet(i, null);
+			if (p != null && clock[p.slot] == p) {
+				clock[p.slot] = null;
+				pageCount--;
+			}
+		}
+	}
+
+	private synchronized long[] cache(Page p) {
+		Owner owner = p.owner;
+		if (owner.closed)
+			return p.words;
+
+		// another thread read the same page meanwhile
+		Page loaded = owner.pages.get(p.index);
+		if (loaded != null)
+			return loaded.words;
+
+		while (true) {
+			int slot = hand;
+			hand = (hand + 1) % maxPages;
+
+			Page victim = clock[slot];
+			if (victim != null) {
+				if (victim.referenced) {
+					victim.referenced = false;
+					continue;
+				}
+
+				victim.owner.pages.set(victim.index, null);
+				pageCount--;
+			}
+
+			p.slot = slot;
+			clock[slot] = p;
+			owner.pages.set(p.index, p);
+			pageCount++;
+			return p.words;
+		}
+	}
+
+	private long[] readPage(Owner owner, int page) throws IOException {
+		long pos = (long) page * pageSize;
+		int len = (int) Math.max(0, Math.min(pageSize, owner.payloadLength - pos));
+		ByteBuffer bb = ByteBuffer.allocate(pageSize);
+		bb.limit(len);
+		while (bb.hasRemaining())
+			if (owner.channel.read(bb, owner.payloadOffset + pos + bb.position()) < 0)
+				break;
+
+		long[] words = new long[pageSize / 8];
+		bb.clear();
+		bb.asLongBuffer().get(words);
+		return words;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PageCache-[%d/%d pages of %d bytes, hit %d, miss %d]", getPageCount(), maxPages,
+				pageSize, hits.sum(), misses.sum());
+	}
+
+	/**
+	 * page table of one filter payload
+	 */
+	static class Owner {
+		private final FileChannel channel;
+		private final long payloadOffset;
+		private final long payloadLength;
+		private final AtomicReferenceArray<Page> pages;
+
+		// written under cache lock
+		private volatile boolean closed;
+
+		private Owner(FileChannel channel, long payloadOffset, long payloadLength, int pageCount) {
+			this.channel = channel;
+			this.payloadOffset = payloadOffset;
+			this.payloadLength = payloadLength;
+			this.pages = new AtomicReferenceArray<Page>(pageCount);
+		}
+	}
+
+	private static class Page {
+		private final Owner owner;
+		private final int index;
+		private final long[] words;
+		private volatile boolean referenced;
+
+		// guarded by cache lock
+		private int slot;
+
+		private Page(Owner owner, int index, long[] words) {
+			this.owner = owner;
+			this.index = index;
+			this.words = words;
+			this.referenced = true;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a saved version 2 {@link BloomFilter2} file which keeps
+ * the bitmap on disk. Only pages touched by queries are read into the shared
+ * {@link PageCache}, so opening a filter costs one header read and cold
+ * filters take no heap.
+ */
+public class PagedBloomFilter<T> implements Closeable {
+	private static final int HEADER_LENGTH = 4 * 4;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final PageCache cache;
+	private final PageCache.Owner owner;
+	private final int wordsPerPage;
+	private final int numOfBits;
+	private final int numOfHashFunction;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+
+	@SuppressWarnings("unchecked")
+	public PagedBloomFilter(File file, PageCache cache) throws IOException {
+		this(file, cache, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public PagedBloomFilter(File file, PageCache cache, HashFunction<T> first, HashFunction<T> second)
+			throws IOException {
+		this.file = file;
+		this.cache = cache;
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.raf = new RandomAccessFile(file, "r");
+		this.channel = raf.getChannel();
+
+		try {
+			ByteBuffer hdr = ByteBuffer.allocate(HEADER_LENGTH);
+			while (hdr.hasRemaining())
+				if (channel.read(hdr, hdr.position()) < 0)
+					throw new IOException("truncated bloom filter header: " + file);
+
+			hdr.flip();
+			int version = -hdr.getInt();
+			if (version != 2)
+				throw new IllegalArgumentException("unsupported version: " + version + ", " + file);
+
+			this.numOfHashFunction = hdr.getInt();
+			this.numOfBits = hdr.getInt();
+			int streamLength = hdr.getInt();
+			long payloadLength = Math.min((long) Bitmap.wordCount(streamLength) * 8, channel.size() - HEADER_LENGTH);
+			this.owner = cache.register(channel, HEADER_LENGTH, payloadLength);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		} catch (RuntimeException e) {
+			raf.close();
+			throw e;
+		}
+
+		this.wordsPerPage = cache.getPageSize() / 8;
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	public boolean contains(HashValue<T> v) throws IOException {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) throws IOException {
+		if (numOfBits == 0)
+			return false;
+
+		for (int i = 0; i < numOfHashFunction; i++) {
+			int index = getIndex(firstHashCode, secondHashCode, i);
+			int word = index >>> 6;
+			long[] page = cache.getPage(owner, word / wordsPerPage);
+			if ((page[word % wordsPerPage] & (1L << index)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	public boolean contains(T key) throws IOException {
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public int getNumOfBits() {
+		return numOfBits;
+	}
+
+	public int getHashFuncCount() {
+		return numOfHashFunction;
+	}
+
+	public PageCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * closes file and drops cached pages of this filter
+	 */
+	@Override
+	public void close() throws IOException {
+		cache.invalidate(owner);
+		raf.close();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PagedBloomFilter-[%s, %d KB, %d hashFunctions (%s, %s)]", file.getName(),
+				this.numOfBits / 8 / 1024, this.numOfHashFunction, this.firstFunction.toString(),
+				this.secondFunction.toString());
+	}
+
+	private int getIndex(int firstHashCode, int secondHashCode, int i) {
+		int index = (firstHashCode + (i * secondHashCode)) % this.numOfBits;
+		return (index < 0) ? -index : index;
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Adds many keys to a filter using a fork-join pool.
+ *
+ * For {@link BloomFilter2}, keys are split into one slice per worker, and each
+ * slice is hashed into its own partial bitmap without any synchronization.
+ * The partial bitmaps are then OR-merged into the filter word range by word
+ * range. This needs one extra bitmap per worker. For
+ * {@link ConcurrentBloomFilter2}, workers set bits of the shared atomic bitmap
+ * directly.
+ *
+ * A builder created without a pool owns its pool, and close() shuts it down.
+ * A pool given by the caller is not shut down.
+ */
+public class ParallelBloomFilterBuilder implements Closeable {
+	// keys per leaf task for atomic bitmap
+	private static final int ADD_THRESHOLD = 8192;
+
+	// smallest slice which is worth a partial bitmap
+	private static final int MIN_SLICE_KEYS = 65536;
+
+	// words per leaf task for merge
+	private static final int MERGE_THRESHOLD = 65536;
+
+	private final ForkJoinPool pool;
+	private final boolean ownPool;
+
+	public ParallelBloomFilterBuilder() {
+		this(new ForkJoinPool(), true);
+	}
+
+	public ParallelBloomFilterBuilder(ForkJoinPool pool) {
+		this(pool, false);
+	}
+
+	private ParallelBloomFilterBuilder(ForkJoinPool pool, boolean ownPool) {
+		this.pool = pool;
+		this.ownPool = ownPool;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public <T> void addAll(BloomFilter2<T> filter, T[] keys) {
+		addAll(filter, Arrays.asList(keys));
+	}
+
+	public <T> void addAll(BloomFilter2<T> filter, List<T> keys) {
+		keys = randomAccess(keys);
+		int slices = Math.max(1, Math.min(pool.getParallelism(), keys.size() / MIN_SLICE_KEYS));
+		if (slices == 1) {
+			for (T key : keys)
+				filter.add(key);
+			return;
+		}
+
+		int wordCount = Bitmap.wordCount(filter.getNumOfBits());
+		List<PartialTask<T>> tasks = new ArrayList<PartialTask<T>>(slices);
+		for (int i = 0; i < slices; i++) {
+			int from = (int) ((long) keys.size() * i / slices);
+			int to = (int) ((long) keys.size() * (i + 1) / slices);
+			tasks.add(new PartialTask<T>(filter, keys, from, to, wordCount));
+		}
+
+		long[][] partials = new long[slices][];
+		pool.invoke(new InvokeAllTask(tasks));
+		for (int i = 0; i < slices; i++)
+			partials[i] = tasks.get(i).words;
+
+		pool.invoke(new MergeTask(filter.getBitmap(), partials, 0, wordCount));
+	}
+
+	public <T> void addAll(ConcurrentBloomFilter2<T> filter, T[] keys) {
+		addAll(filter, Arrays.asList(keys));
+	}
+
+	public <T> void addAll(ConcurrentBloomFilter2<T> filter, List<T> keys) {
+		keys = randomAccess(keys);
+		pool.invoke(new AddTask<T>(filter, keys, 0, keys.size()));
+	}
+
+	@Override
+	public void close() {
+		if (ownPool)
+			pool.shutdown();
+	}
+
+	private static <T> List<T> randomAccess(List<T> keys) {
+		if (keys instanceof RandomAccess)
+			return keys;
+		return new ArrayList<T>(keys);
+	}
+
+	private static class InvokeAllTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<? extends RecursiveAction> tasks;
+
+		private InvokeAllTask(List<? extends RecursiveAction> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(tasks);
+		}
+	}
+
+	private static class PartialTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final BloomFilter2<T> filter;
+		private final List<T> keys;
+		private final int from;
+		private final int to;
+		private final int wordCount;
+		private long[] words;
+
+		private PartialTask(BloomFilter2<T> filter, List<T> keys, int from, int to, int wordCount) {
+			this.filter = filter;
+			this.keys = keys;
+			this.from = from;
+			this.to = to;
+			this.wordCount = wordCount;
+		}
+
+		@Override
+		protected void compute() {
+			words = new long[wordCount];
+			filter.addTo(words, keys, from, to);
+		}
+	}
+
+	private static class MergeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Bitmap bitmap;
+		private final long[][] partials;
+		private final int from;
+		private final int to;
+
+		private MergeTask(Bitmap bitmap, long[][] partials, int from, int to) {
+			this.bitmap = bitmap;
+			this.partials = partials;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > MERGE_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new MergeTask(bitmap, partials, from, mid), new MergeTask(bitmap, partials, mid, to));
+				return;
+			}
+
+			if (bitmap instanceof LongBitmap) {
+				long[] target = ((LongBitmap) bitmap).getWords();
+				for (long[] words : partials)
+					for (int i = from; i < to; i++)
+						target[i] |= words[i];
+			} else {
+				for (int i = from; i < to; i++) {
+					long word = bitmap.getWord(i);
+					for (long[] words : partials)
+						word |= words[i];
+					bitmap.setWord(i, word);
+				}
+			}
+		}
+	}
+
+	private static class AddTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ConcurrentBloomFilter2<T> filter;
+		private final List<T> keys;
+		private final int from;
+		private final int to;
+
+		private AddTask(ConcurrentBloomFilter2<T> filter, List<T> keys, int from, int to) {
+			this.filter = filter;
+			this.keys = keys;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > ADD_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new AddTask<T>(filter, keys, from, mid), new AddTask<T>(filter, keys, mid, to));
+				return;
+			}
+
+			for (int i = from; i < to; i++)
+				filter.add(keys.get(i));
+		}
+	}
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scalable bloom filter (Almeida et al.) which chains {@link BloomFilter2}
+ * stages. When a stage reaches its capacity, a new stage is added with
+ * capacity multiplied by growth and error rate multiplied by tightening
+ * ratio. The first stage gets errorRate * (1 - ratio), so the compound false
+ * positive rate stays under errorRate however many stages are added.
+ *
+ * A stage which needs more than 2^31 - 1 bits would be clamped by
+ * BloomFilter2 and miss its error rate, so such stages are
+ * {@link LargeBloomFilter} instead.
+ */
+public class ScalableBloomFilter<T> {
+	private static final int DEFAULT_GROWTH = 2;
+	private static final double DEFAULT_TIGHTENING_RATIO = 0.8;
+
+	// growth parameters are replaced by load()
+	private double errorRate;
+	private long initialCapacity;
+	private int growth;
+	private double tighteningRatio;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+
+	// stages larger than this use LargeBloomFilter
+	private long maxStageBits;
+	private List<Stage<T>> stages = new ArrayList<Stage<T>>();
+
+	@SuppressWarnings("unchecked")
+	public ScalableBloomFilter() {
+		this(0.001, 100000L, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	@SuppressWarnings("unchecked")
+	public ScalableBloomFilter(double errorRate, long initialCapacity) {
+		this(errorRate, initialCapacity, GeneralHashFunction.stringHashFunctions[2],
+				GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public ScalableBloomFilter(double errorRate, long initialCapacity, HashFunction<T> first, HashFunction<T> second) {
+		this(errorRate, initialCapacity, DEFAULT_GROWTH, DEFAULT_TIGHTENING_RATIO, first, second);
+	}
+
+	public ScalableBloomFilter(double errorRate, long initialCapacity, int growth, double tighteningRatio,
+			HashFunction<T> first, HashFunction<T> second) {
+		this(errorRate, initialCapacity, growth, tighteningRatio, first, second, Integer.MAX_VALUE);
+	}
+
+	ScalableBloomFilter(double errorRate, long initialCapacity, int growth, double tighteningRatio,
+			HashFunction<T> first, HashFunction<T> second, long maxStageBits) {
+		checkGrowth(growth, tighteningRatio);
+		this.errorRate = errorRate;
+		this.initialCapacity = initialCapacity;
+		this.growth = growth;
+		this.tighteningRatio = tighteningRatio;
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.maxStageBits = maxStageBits;
+		addStage();
+	}
+
+	private static void checkGrowth(int growth, double tighteningRatio) {
+		if (growth < 1)
+			throw new IllegalArgumentException("growth should be positive: " + growth);
+		if (tighteningRatio <= 0 || tighteningRatio >= 1)
+			throw new IllegalArgumentException("tightening ratio should be between 0 and 1: " + tighteningRatio);
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	public void add(HashValue<T> v) {
+		add(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	/**
+	 * keys which might be contained already are not added again, so that
+	 * duplicates do not fill up stages
+	 */
+	public void add(int firstHashCode, int secondHashCode) {
+		if (contains(firstHashCode, secondHashCode))
+			return;
+
+		Stage<T> stage = stages.get(stages.size() - 1);
+		if (stage.count >= stage.capacity)
+			stage = addStage();
+
+		stage.add(firstHashCode, secondHashCode);
+		stage.count++;
+	}
+
+	public void add(T key) {
+		add(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	/**
+	 * checks newest stage first, since it is the largest one and has most
+	 * recent keys
+	 */
+	public boolean contains(int firstHashCode, int secondHashCode) {
+		for (int i = stages.size() - 1; i >= 0; i--)
+			if (stages.get(i).contains(firstHashCode, secondHashCode))
+				return true;
+		return false;
+	}
+
+	public boolean contains(T key) {
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public int getStageCount() {
+		return stages.size();
+	}
+
+	/**
+	 * @return null if the stage is {@link LargeBloomFilter}
+	 */
+	public BloomFilter2<T> getStage(int i) {
+		return stages.get(i).filter;
+	}
+
+	/**
+	 * @return null if the stage is {@link BloomFilter2}
+	 */
+	public LargeBloomFilter<T> getLargeStage(int i) {
+		return stages.get(i).large;
+	}
+
+	public long getStageNumOfBits(int i) {
+		Stage<T> stage = stages.get(i);
+		return stage.filter != null ? stage.filter.getNumOfBits() : stage.large.getNumOfBits();
+	}
+
+	public int getStageHashFuncCount(int i) {
+		Stage<T> stage = stages.get(i);
+		return stage.filter != null ? stage.filter.getHashFuncCount() : stage.large.getHashFuncCount();
+	}
+
+	public long getStageCapacity(int i) {
+		return stages.get(i).capacity;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (Stage<T> stage : stages)
+			count += stage.count;
+		return count;
+	}
+
+	/**
+	 * upper bound of false positive rate over current stages
+	 */
+	public double getErrorRateBound() {
+		double bound = 1;
+		for (int i = 0; i < stages.size(); i++)
+			bound *= 1 - getStageErrorRate(i);
+		return 1 - bound;
+	}
+
+	public double getStageErrorRate(int i) {
+		return errorRate * (1 - tighteningRatio) * Math.pow(tighteningRatio, i);
+	}
+
+	private long getInitialStageCapacity(int i) {
+		double capacity = initialCapacity * Math.pow(growth, i);
+		return capacity > Long.MAX_VALUE ? Long.MAX_VALUE : (long) capacity;
+	}
+
+	private Stage<T> addStage() {
+		int i = stages.size();
+		double rate = getStageErrorRate(i);
+		long capacity = getInitialStageCapacity(i);
+
+		Stage<T> stage;
+		if (new LargeBloomFilter.OptimumFinder(rate, capacity).numOfBits > maxStageBits)
+			stage = new Stage<T>(null, new LargeBloomFilter<T>(rate, capacity), capacity);
+		else
+			stage = new Stage<T>(new BloomFilter2<T>(rate, capacity, firstFunction, secondFunction), null, capacity);
+
+		stages.add(stage);
+		return stage;
+	}
+
+	/**
+	 * replaces stages and growth parameters with the stream's, so that the
+	 * filter keeps growing as it was created
+	 */
+	public void load(InputStream is) throws IOException {
+		// stage stream version is peeked to pick stage type
+		PushbackInputStream pis = new PushbackInputStream(is, 4);
+		DataInputStream dis = new DataInputStream(pis);
+		int version = -dis.readInt();
+		if (version != 7)
+			throw new IllegalArgumentException("unsupported version: " + version);
+
+		double errorRate = dis.readDouble();
+		long initialCapacity = dis.readLong();
+		int growth = dis.readInt();
+		double tighteningRatio = dis.readDouble();
+		long maxStageBits = dis.readLong();
+		checkGrowth(growth, tighteningRatio);
+
+		int stageCount = dis.readInt();
+		List<Stage<T>> stages = new ArrayList<Stage<T>>(stageCount);
+		for (int i = 0; i < stageCount; i++) {
+			long capacity = dis.readLong();
+			long count = dis.readLong();
+
+			byte[] tag = new byte[4];
+			dis.readFully(tag);
+			pis.unread(tag);
+
+			Stage<T> stage;
+			if (ByteBuffer.wrap(tag).getInt() == -5) {
+				LargeBloomFilter<T> large = new LargeBloomFilter<T>(0.5, 1);
+				large.load(pis);
+				stage = new Stage<T>(null, large, capacity);
+			} else {
+				BloomFilter2<T> filter = new BloomFilter2<T>(0, 0, firstFunction, secondFunction, new LongBitmap(0));
+				filter.load(pis);
+				stage = new Stage<T>(filter, null, capacity);
+			}
+			stage.count = count;
+			stages.add(stage);
+		}
+
+		if (stages.isEmpty())
+			throw new IOException("no stage in scalable bloom filter stream");
+
+		this.errorRate = errorRate;
+		this.initialCapacity = initialCapacity;
+		this.growth = growth;
+		this.tighteningRatio = tighteningRatio;
+		this.maxStageBits = maxStageBits;
+		this.stages = stages;
+	}
+
+	public long streamLength() {
+		long length = getStreamHeaderLength();
+		for (Stage<T> stage : stages)
+			length += 8 * 2 + stage.streamLength();
+		return length;
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 3 + 8 * 4;
+	}
+
+	public long save(OutputStream os) throws IOException {
+		DataOutputStream dos = new DataOutputStream(os);
+		dos.writeInt(-7); // version
+		dos.writeDouble(errorRate);
+		dos.writeLong(initialCapacity);
+		dos.writeInt(growth);
+		dos.writeDouble(tighteningRatio);
+		dos.writeLong(maxStageBits);
+		dos.writeInt(stages.size());
+		long wrote = getStreamHeaderLength();
+		for (Stage<T> stage : stages) {
+			dos.writeLong(stage.capacity);
+			dos.writeLong(stage.count);
+			dos.flush();
+			wrote += 8 * 2 + stage.save(os);
+		}
+		return wrote;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ScalableBloomFilter-[%d stages, %d keys, error rate bound %f (%s, %s)]", stages.size(),
+				getCount(), getErrorRateBound(), this.firstFunction.toString(), this.secondFunction.toString());
+	}
+
+	/**
+	 * either filter or large is set
+	 */
+	private static class Stage<T> {
+		private final BloomFilter2<T> filter;
+		private final LargeBloomFilter<T> large;
+		private final long capacity;
+		private long count;
+
+		private Stage(BloomFilter2<T> filter, LargeBloomFilter<T> large, long capacity) {
+			this.filter = filter;
+			this.large = large;
+			this.capacity = capacity;
+		}
+
+		private void add(int firstHashCode, int secondHashCode) {
+			if (filter != null)
+				filter.add(firstHashCode, secondHashCode);
+			else
+				large.addHash(hash64(firstHashCode, secondHashCode));
+		}
+
+		private boolean contains(int firstHashCode, int secondHashCode) {
+			if (filter != null)
+				return filter.contains(firstHashCode, secondHashCode);
+			return large.containsHash(hash64(firstHashCode, secondHashCode));
+		}
+
+		private long streamLength() {
+			return filter != null ? filter.streamLength() : large.streamLength();
+		}
+
+		private long save(OutputStream os) throws IOException {
+			return filter != null ? filter.save(os) : large.save(os);
+		}
+
+		private static long hash64(int firstHashCode, int secondHashCode) {
+			return ((long) firstHashCode << 32) | (secondHashCode & 0xffffffffL);
+		}
+	}
+}
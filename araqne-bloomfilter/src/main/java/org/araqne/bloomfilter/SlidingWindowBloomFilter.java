@@ -0,0 +1,246 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+/**
+ * Aging bloom filter made of a ring of {@link BloomFilter2} generations. Keys
+ * are added to the newest generation, and the oldest generation is dropped
+ * when the newest one is full (count window) or older than generation period
+ * (time window). So a key is remembered for at least (generations - 1)
+ * periods and at most generations periods. Each generation gets errorRate /
+ * generations, so the combined false positive rate stays under errorRate.
+ *
+ * Time window periods stay aligned to the creation time. A rotation by count
+ * or by {@link #rotate()} does not restart the period, it only drops the
+ * oldest generation early, so keys added before it are remembered for one
+ * period less.
+ *
+ * All generations share bit length and hash count, so a lookup computes each
+ * probe index once and checks that bit in every live generation.
+ */
+public class SlidingWindowBloomFilter<T> {
+	private static final int MAX_GENERATIONS = 64;
+
+	private final double errorRate;
+	private final long generationCapacity;
+	private final long generationMillis;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private final BloomFilter2<T>[] ring;
+	private final long[][] words;
+	private final int numOfBits;
+	private final int numOfHashFunction;
+
+	// ring index of newest generation
+	private int current;
+	private long currentCount;
+	private long currentStart;
+
+	/**
+	 * count window. The oldest generation is dropped after every
+	 * generationCapacity keys.
+	 */
+	@SuppressWarnings("unchecked")
+	public SlidingWindowBloomFilter(double errorRate, long generationCapacity, int generations) {
+		this(errorRate, generationCapacity, generations, 0, GeneralHashFunction.stringHashFunctions[2],
+				GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	/**
+	 * time window. The oldest generation is dropped every generationMillis,
+	 * or earlier if newest generation reaches generationCapacity keys.
+	 */
+	@SuppressWarnings("unchecked")
+	public SlidingWindowBloomFilter(double errorRate, long generationCapacity, int generations, long generationMillis) {
+		this(errorRate, generationCapacity, generations, generationMillis, GeneralHashFunction.stringHashFunctions[2],
+				GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public SlidingWindowBloomFilter(double errorRate, long generationCapacity, int generations, long generationMillis,
+			HashFunction<T> first, HashFunction<T> second) {
+		if (generations < 2 || generations > MAX_GENERATIONS)
+			throw new IllegalArgumentException("generations should be between 2 and " + MAX_GENERATIONS + ": "
+					+ generations);
+
+		this.errorRate = errorRate;
+		this.generationCapacity = generationCapacity;
+		this.generationMillis = generationMillis;
+		this.firstFunction = first;
+		this.secondFunction = second;
+		this.ring = new BloomFilter2[generations];
+		this.words = new long[generations][];
+
+		BloomFilter2<T> filter = newGeneration();
+		this.numOfBits = filter.getNumOfBits();
+		this.numOfHashFunction = filter.getHashFuncCount();
+		this.ring[0] = filter;
+		this.words[0] = ((LongBitmap) filter.getBitmap()).getWords();
+		this.current = 0;
+		this.currentStart = currentTimeMillis();
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	public void add(HashValue<T> v) {
+		add(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public void add(int firstHashCode, int secondHashCode) {
+		expire();
+		if (currentCount >= generationCapacity)
+			rotate();
+
+		ring[current].add(firstHashCode, secondHashCode);
+		currentCount++;
+	}
+
+	public void add(T key) {
+		add(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	/**
+	 * keeps a bit per live generation which still may contain the key, and
+	 * clears it on each probe miss
+	 */
+	public boolean contains(int firstHashCode, int secondHashCode) {
+		expire();
+
+		long live = 0;
+		for (int g = 0; g < words.length; g++)
+			if (words[g] != null)
+				live |= 1L << g;
+
+		for (int i = 0; i < numOfHashFunction && live != 0; i++) {
+			int index = getIndex(firstHashCode, secondHashCode, i);
+			int w = index >>> 6;
+			long mask = 1L << index;
+			for (long m = live; m != 0; m &= m - 1) {
+				int g = Long.numberOfTrailingZeros(m);
+				if ((words[g][w] & mask) == 0)
+					live &= ~(1L << g);
+			}
+		}
+		return live != 0;
+	}
+
+	public boolean contains(T key) {
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	/**
+	 * adds the key unless it might be in the window already
+	 *
+	 * @return true if the key is added, false if it is a (possible) duplicate
+	 */
+	public boolean addIfAbsent(T key) {
+		int first = firstFunction.hashCode(key);
+		int second = secondFunction.hashCode(key);
+		if (contains(first, second))
+			return false;
+
+		add(first, second);
+		return true;
+	}
+
+	/**
+	 * drops the oldest generation and starts a new one. Only references are
+	 * moved, so it takes constant time apart from allocating the new bitmap.
+	 */
+	public void rotate() {
+		int next = (current + 1) % ring.length;
+		BloomFilter2<T> filter = newGeneration();
+		ring[next] = filter;
+		words[next] = ((LongBitmap) filter.getBitmap()).getWords();
+		current = next;
+		currentCount = 0;
+	}
+
+	public int getGenerationCount() {
+		return ring.length;
+	}
+
+	public int getLiveGenerationCount() {
+		int count = 0;
+		for (BloomFilter2<T> filter : ring)
+			if (filter != null)
+				count++;
+		return count;
+	}
+
+	/**
+	 * @param age
+	 *            0 for newest generation
+	 * @return generation filter, or null if not created yet
+	 */
+	public BloomFilter2<T> getGeneration(int age) {
+		return ring[(current - age + ring.length) % ring.length];
+	}
+
+	public int getNumOfBits() {
+		return numOfBits;
+	}
+
+	public int getHashFuncCount() {
+		return numOfHashFunction;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SlidingWindowBloomFilter-[%d generations of %d KB, %d hashFunctions (%s, %s)]",
+				ring.length, this.numOfBits / 8 / 1024, this.numOfHashFunction, this.firstFunction.toString(),
+				this.secondFunction.toString());
+	}
+
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * rotates once per elapsed period, but not more than ring size since
+	 * every generation is dropped by then. Start time advances by whole
+	 * periods, so generations stay aligned to period boundaries.
+	 */
+	private void expire() {
+		if (generationMillis <= 0)
+			return;
+
+		long start = currentStart;
+		long periods = (currentTimeMillis() - start) / generationMillis;
+		if (periods <= 0)
+			return;
+
+		for (long i = 0; i < Math.min(periods, ring.length); i++)
+			rotate();
+
+		currentStart = start + periods * generationMillis;
+	}
+
+	private BloomFilter2<T> newGeneration() {
+		return new BloomFilter2<T>(errorRate / ring.length, generationCapacity, firstFunction, secondFunction);
+	}
+
+	private int getIndex(int firstHashCode, int secondHashCode, int i) {
+		int index = (firstHashCode + (i * secondHashCode)) % this.numOfBits;
+		return (index < 0) ? -index : index;
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Split-block bloom filter as used by Parquet and Impala. A block is 256 bits
+ * of eight 32-bit lanes, and each key sets exactly one bit per lane using
+ * eight odd multipliers. Two lanes are packed in one long, so insert and probe
+ * take four word operations. Set system property
+ * "araqne.bloomfilter.sbbf.scalar" to true to use the lane-by-lane kernel
+ * instead.
+ */
+public class SplitBlockBloomFilter<T> {
+	private static final int BLOCK_BITS = 256;
+	private static final int BLOCK_WORDS = BLOCK_BITS / 64;
+	private static final int[] SALT = { 0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d, 0x705495c7, 0x2df1424b,
+			0x9efc4947, 0x5c6bfb31 };
+	private static final boolean SCALAR = Boolean.getBoolean("araqne.bloomfilter.sbbf.scalar");
+
+	private int numOfBits;
+	private int numOfBlocks;
+	private final HashFunction<T> firstFunction;
+	private final HashFunction<T> secondFunction;
+	private LongBitmap bitmap;
+
+	@SuppressWarnings("unchecked")
+	public SplitBlockBloomFilter() {
+		this(GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	@SuppressWarnings("unchecked")
+	public SplitBlockBloomFilter(long capacity) {
+		this(0.001, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public SplitBlockBloomFilter(HashFunction<T> first, HashFunction<T> second) {
+		this(0.001, 1000000L, first, second);
+	}
+
+	public SplitBlockBloomFilter(double errorRate, long capacity, HashFunction<T> first, HashFunction<T> second) {
+		OptimumFinder opt = new OptimumFinder(errorRate, capacity);
+		this.firstFunction = first;
+		this.secondFunction = second;
+		attach(new LongBitmap(opt.numOfBlocks * BLOCK_BITS), opt.numOfBlocks * BLOCK_BITS);
+	}
+
+	@SuppressWarnings("unchecked")
+	public SplitBlockBloomFilter(double errorRate, int capacity) {
+		this(errorRate, capacity, GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1]);
+	}
+
+	public HashValue<T> getHashValue(T key) {
+		return new HashValue<T>(key, firstFunction, secondFunction);
+	}
+
+	public void add(HashValue<T> v) {
+		add(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public void add(int firstHashCode, int secondHashCode) {
+		long h = BlockedBloomFilter.mix(firstHashCode, secondHashCode);
+		int base = getBlock(h) * BLOCK_WORDS;
+		if (SCALAR)
+			insertScalar(bitmap.getWords(), base, (int) h);
+		else
+			insert(bitmap.getWords(), base, (int) h);
+	}
+
+	public void add(T key) {
+		add(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public boolean contains(HashValue<T> v) {
+		return contains(v.getFirstHashCode(), v.getSecondHashCode());
+	}
+
+	public boolean contains(int firstHashCode, int secondHashCode) {
+		if (numOfBits == 0)
+			return false;
+
+		long h = BlockedBloomFilter.mix(firstHashCode, secondHashCode);
+		int base = getBlock(h) * BLOCK_WORDS;
+		if (SCALAR)
+			return checkScalar(bitmap.getWords(), base, (int) h);
+		return check(bitmap.getWords(), base, (int) h);
+	}
+
+	public boolean contains(T key) {
+		return contains(firstFunction.hashCode(key), secondFunction.hashCode(key));
+	}
+
+	public LongBitmap getBitmap() {
+		return bitmap;
+	}
+
+	public void load(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		int version = -dis.readInt();
+		if (version != 4)
+			throw new IllegalArgumentException("unsupported version: " + version);
+
+		dis.readInt(); // always 8 lanes
+		int numOfBits = dis.readInt();
+		int streamLength = dis.readInt();
+		if (numOfBits % BLOCK_BITS != 0)
+			throw new IllegalArgumentException("invalid block filter length: " + numOfBits);
+
+		LongBitmap bm = new LongBitmap(numOfBits);
+		bm.readWords(dis, Bitmap.wordCount(streamLength));
+		this.attach(bm, numOfBits);
+	}
+
+	private void attach(LongBitmap bm, int numOfBits) {
+		this.bitmap = bm;
+		this.numOfBits = numOfBits;
+		this.numOfBlocks = numOfBits / BLOCK_BITS;
+	}
+
+	public long streamLength() {
+		return bitmap.getByteLength() + getStreamHeaderLength();
+	}
+
+	private int getStreamHeaderLength() {
+		return 4 * 4;
+	}
+
+	public long save(OutputStream os) throws IOException {
+		ByteBuffer hdr = ByteBuffer.allocate(getStreamHeaderLength());
+		hdr.putInt(-4); // version
+		hdr.putInt(SALT.length);
+		hdr.putInt(numOfBits);
+		hdr.putInt(bitmap.length());
+		hdr.flip();
+
+		WritableByteChannel newChannel = Channels.newChannel(os);
+		newChannel.write(hdr);
+		long wrote = bitmap.writeTo(newChannel);
+		return wrote + getStreamHeaderLength();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SplitBlockBloomFilter-[%d KB, %d blocks (%s, %s)]", this.numOfBits / 8 / 1024,
+				this.numOfBlocks, this.firstFunction.toString(), this.secondFunction.toString());
+	}
+
+	private int getBlock(long h) {
+		return (int) (((h >>> 32) * numOfBlocks) >>> 32);
+	}
+
+	private static long mask(int key, int lo, int hi) {
+		return (1L << ((key * SALT[lo]) >>> 27)) | (1L << (32 + ((key * SALT[hi]) >>> 27)));
+	}
+
+	static void insert(long[] words, int base, int key) {
+		words[base] |= mask(key, 0, 1);
+		words[base + 1] |= mask(key, 2, 3);
+		words[base + 2] |= mask(key, 4, 5);
+		words[base + 3] |= mask(key, 6, 7);
+	}
+
+	static boolean check(long[] words, int base, int key) {
+		long m0 = mask(key, 0, 1);
+		long m1 = mask(key, 2, 3);
+		long m2 = mask(key, 4, 5);
+		long m3 = mask(key, 6, 7);
+		return ((words[base] & m0) == m0) & ((words[base + 1] & m1) == m1) & ((words[base + 2] & m2) == m2)
+				& ((words[base + 3] & m3) == m3);
+	}
+
+	static void insertScalar(long[] words, int base, int key) {
+		for (int i = 0; i < SALT.length; i++) {
+			int bit = (key * SALT[i]) >>> 27;
+			words[base + (i >> 1)] |= 1L << (((i & 1) << 5) + bit);
+		}
+	}
+
+	static boolean checkScalar(long[] words, int base, int key) {
+		for (int i = 0; i < SALT.length; i++) {
+			int bit = (key * SALT[i]) >>> 27;
+			if ((words[base + (i >> 1)] & (1L << (((i & 1) << 5) + bit))) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	static class OptimumFinder {
+		private static final int MAX_BLOCKS = Integer.MAX_VALUE / BLOCK_BITS;
+
+		int numOfBlocks;
+
+		OptimumFinder(double errorRate, long capacity) {
+			int lo = 1;
+			int hi = MAX_BLOCKS;
+
+			// smallest block count which satisfies error rate
+			while (lo < hi) {
+				int mid = (int) (((long) lo + hi) >>> 1);
+				if (falsePositiveRate(capacity, mid) <= errorRate)
+					hi = mid;
+				else
+					lo = mid + 1;
+			}
+
+			numOfBlocks = lo;
+		}
+
+		/**
+		 * keys per block follow poisson distribution, and each key sets one
+		 * bit in each of eight 32-bit lanes
+		 */
+		static double falsePositiveRate(long capacity, int blocks) {
+			double lambda = (double) capacity / blocks;
+			double logLambda = Math.log(lambda);
+			double limit = lambda + 10 * Math.sqrt(lambda) + 10;
+			double logP = -lambda;
+			double fpr = 0;
+			for (int j = 0; j <= limit; j++) {
+				if (j > 0)
+					logP += logLambda - Math.log(j);
+
+				double p = Math.exp(logP);
+				fpr += p * Math.pow(1 - Math.pow(1 - 1.0 / 32, j), SALT.length);
+			}
+			return fpr;
+		}
+	}
+
+}
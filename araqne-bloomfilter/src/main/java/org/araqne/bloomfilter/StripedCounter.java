@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 Eediom Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.bloomfilter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which spreads increments of different threads over padded cells,
+ * so that concurrent adders do not contend on one cache line.
+ */
+class StripedCounter {
+	// 8 longs per 64 byte cache line
+	private static final int PAD = 8;
+	private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors() * 2);
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	void increment() {
+		cells.getAndIncrement(stripe() * PAD);
+	}
+
+	void decrement() {
+		cells.getAndDecrement(stripe() * PAD);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++)
+			sum += cells.get(i * PAD);
+		return sum;
+	}
+
+	void reset() {
+		for (int i = 0; i < STRIPES; i++)
+			cells.set(i * PAD, 0);
+	}
+
+	private static int stripe() {
+		long id = Thread.currentThread().getId();
+		return (int) ((id * 0x9e3779b97f4a7c15L) >>> 32) & (STRIPES - 1);
+	}
+
+	private static int stripes(int n) {
+		int stripes = 1;
+		while (stripes < n && stripes < 64)
+			stripes <<= 1;
+		return stripes;
+	}
+}
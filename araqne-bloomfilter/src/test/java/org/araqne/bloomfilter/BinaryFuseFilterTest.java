@@ -0,0 +1,100 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BinaryFuseFilterTest {
+	@Test
+	public void build() throws IOException {
+		BinaryFuseFilter.Builder<String> builder = new BinaryFuseFilter.Builder<String>();
+		for (int i = 0; i < 100000; i++)
+			builder.add("key" + i);
+
+		// duplicates are ignored
+		for (int i = 0; i < 1000; i++)
+			builder.add("key" + i);
+
+		BinaryFuseFilter<String> filter = builder.build();
+		assertEquals(100000, filter.getCount());
+		assertEquals(8, filter.getFingerprintBits());
+		assertTrue(filter.getBitsPerKey() < 10);
+
+		for (int i = 0; i < 100000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 100000; i++)
+			if (filter.contains("other" + i))
+				count++;
+
+		System.out.printf("binary fuse false positive count: %d, rate : %f, bits per key: %f\n", count,
+				count / 100000D, filter.getBitsPerKey());
+		assertTrue(count < 600);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os));
+
+		BinaryFuseFilter<String> loaded = new BinaryFuseFilter<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(filter.getCount(), loaded.getCount());
+		assertArrayEquals(filter.getFingerprints(), loaded.getFingerprints());
+		for (int i = 0; i < 100000; i++)
+			assertTrue(loaded.contains("key" + i));
+	}
+
+	@Test
+	public void small() {
+		for (int n = 0; n < 100; n++) {
+			BinaryFuseFilter.Builder<String> builder = new BinaryFuseFilter.Builder<String>();
+			for (int i = 0; i < n; i++)
+				builder.add("key" + i);
+
+			BinaryFuseFilter<String> filter = builder.build();
+			assertEquals(n, filter.getCount());
+			for (int i = 0; i < n; i++)
+				assertTrue(filter.contains("key" + i));
+		}
+
+		assertFalse(new BinaryFuseFilter.Builder<String>().build().contains("key"));
+	}
+
+	@Test
+	public void wideFingerprints() throws IOException {
+		BinaryFuseFilter.Builder<String> builder = new BinaryFuseFilter.Builder<String>(0.001);
+		for (int i = 0; i < 100000; i++)
+			builder.add("key" + i);
+
+		BinaryFuseFilter<String> filter = builder.build();
+		assertEquals(16, filter.getFingerprintBits());
+		assertTrue(filter.getBitsPerKey() < 20);
+		for (int i = 0; i < 100000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 100000; i++)
+			if (filter.contains("other" + i))
+				count++;
+
+		System.out.printf("binary fuse 16 bit false positive count: %d, rate : %f, bits per key: %f\n", count,
+				count / 100000D, filter.getBitsPerKey());
+		assertTrue(count < 100);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os));
+
+		BinaryFuseFilter<String> loaded = new BinaryFuseFilter<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(16, loaded.getFingerprintBits());
+		assertArrayEquals(filter.getFingerprints(), loaded.getFingerprints());
+		for (int i = 0; i < 100000; i++)
+			assertTrue(loaded.contains("key" + i));
+	}
+}
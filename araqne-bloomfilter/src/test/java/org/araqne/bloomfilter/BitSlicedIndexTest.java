@@ -0,0 +1,73 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BitSlicedIndexTest {
+	@Test
+	public void query() throws IOException {
+		BitSlicedIndex<String> index = new BitSlicedIndex<String>(0.001, 1000);
+		List<BloomFilter2<String>> filters = new ArrayList<BloomFilter2<String>>();
+		for (int s = 0; s < 150; s++) {
+			BloomFilter2<String> filter = new BloomFilter2<String>(0.001, 1000);
+			for (int i = 0; i < 1000; i++)
+				filter.add("s" + s + "-" + i);
+			filters.add(filter);
+
+			// half of segments are added key by key
+			if (s % 2 == 0) {
+				assertEquals(s, index.addSegment(filter));
+			} else {
+				assertEquals(s, index.addSegment());
+				for (int i = 0; i < 1000; i++)
+					index.add(s, "s" + s + "-" + i);
+			}
+		}
+		assertEquals(150, index.getSegmentCount());
+
+		assertSameAsFilters(index, filters);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(index.streamLength(), index.save(os));
+		assertEquals(index.streamLength(), os.size());
+
+		BitSlicedIndex<String> loaded = new BitSlicedIndex<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(150, loaded.getSegmentCount());
+		assertSameAsFilters(loaded, filters);
+
+		// append after load grows rows
+		for (int s = 150; s < 200; s++) {
+			BloomFilter2<String> filter = new BloomFilter2<String>(0.001, 1000);
+			for (int i = 0; i < 1000; i++)
+				filter.add("s" + s + "-" + i);
+			filters.add(filter);
+			assertEquals(s, loaded.addSegment(filter));
+		}
+		assertSameAsFilters(loaded, filters);
+	}
+
+	private void assertSameAsFilters(BitSlicedIndex<String> index, List<BloomFilter2<String>> filters) {
+		for (int n = 0; n < 2000; n++) {
+			String key = "s" + (n % filters.size()) + "-" + (n % 1500);
+			int[] segments = index.query(key);
+
+			int expected = 0;
+			for (int s = 0; s < filters.size(); s++) {
+				if (filters.get(s).contains(key)) {
+					assertTrue(expected < segments.length);
+					assertEquals(s, segments[expected++]);
+				}
+			}
+			assertEquals(expected, segments.length);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BlockedBloomFilterTest {
+	@Test
+	public void containsAndFalsePositive() {
+		BlockedBloomFilter<String> filter = new BlockedBloomFilter<String>(0.001, 50000);
+		for (int i = 0; i < 50000; i++)
+			filter.add("key" + i);
+
+		for (int i = 0; i < 50000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 100000; i++)
+			if (filter.contains("other" + i))
+				count++;
+
+		System.out.printf("blocked false positive count: %d, rate : %f\n", count, count / 100000D);
+		assertTrue(count < 200);
+	}
+
+	@Test
+	public void sizing() {
+		BlockedBloomFilter.OptimumFinder opt = new BlockedBloomFilter.OptimumFinder(0.001, 1000000);
+		double fpr = BlockedBloomFilter.OptimumFinder.falsePositiveRate(1000000, opt.numOfBlocks, opt.numOfHashFunction);
+		assertTrue(fpr <= 0.001);
+		assertTrue(BlockedBloomFilter.OptimumFinder.falsePositiveRate(1000000, opt.numOfBlocks - 1, opt.numOfHashFunction) > 0.001);
+
+		// blocked filter needs a few more bits than standard one
+		BloomFilter2.OptimumFinder std = new BloomFilter2.OptimumFinder(0.001, 1000000);
+		assertTrue(opt.numOfBlocks * 512L > std.numOfBits);
+		assertTrue(opt.numOfBlocks * 512L < std.numOfBits * 1.5);
+	}
+
+	@Test
+	public void saveAndLoad() throws IOException {
+		BlockedBloomFilter<String> filter = new BlockedBloomFilter<String>(0.01, 1000);
+		for (int i = 0; i < 1000; i++)
+			filter.add("token" + i);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		long wrote = filter.save(os);
+		assertEquals(filter.streamLength(), wrote);
+		assertEquals(wrote, os.size());
+
+		BlockedBloomFilter<String> loaded = new BlockedBloomFilter<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(filter.getHashFuncCount(), loaded.getHashFuncCount());
+		for (int i = 0; i < 1000; i++)
+			assertTrue(loaded.contains("token" + i));
+
+		try {
+			new BloomFilter2<String>().load(new ByteArrayInputStream(os.toByteArray()));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -2,9 +2,17 @@ package org.araqne.bloomfilter;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 
 import org.araqne.bloomfilter.BloomFilterTest.UIDGen;
@@ -107,4 +115,277 @@ public class BloomFilter2Test {
 		filter2.load(new ByteArrayInputStream(b));
 		assertTrue(filter2.contains("test"));
 	}
+
+	@Test
+	public void testMappedLoad() throws IOException {
+		BloomFilter2<String> filter = new BloomFilter2<String>(0.01, 1000);
+		for (int i = 0; i < 1000; i++)
+			filter.add("token" + i);
+
+		File file = File.createTempFile("bloomfilter", ".bin");
+		try {
+			FileOutputStream os = new FileOutputStream(file);
+			try {
+				filter.save(os);
+			} finally {
+				os.close();
+			}
+
+			BloomFilter2<String> mapped = new BloomFilter2<String>();
+			mapped.load(file, MapMode.READ_ONLY);
+			assertEquals(filter.getHashFuncCount(), mapped.getHashFuncCount());
+			for (int i = 0; i < 1000; i++)
+				assertTrue(mapped.contains("token" + i));
+
+			BloomFilter2<String> writable = new BloomFilter2<String>();
+			writable.load(file, MapMode.READ_WRITE);
+			writable.add("written through");
+
+			BloomFilter2<String> reloaded = new BloomFilter2<String>();
+			FileInputStream is = new FileInputStream(file);
+			try {
+				reloaded.load(is);
+			} finally {
+				is.close();
+			}
+			assertTrue(reloaded.contains("written through"));
+			assertTrue(reloaded.contains("token1"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testMappedLoadFallback() throws IOException {
+		BloomFilter2<String> filter = new BloomFilter2<String>(0.01, 1000);
+		for (int i = 0; i < 1000; i++)
+			filter.add("token" + i);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		filter.save(bos);
+		byte[] b = bos.toByteArray();
+
+		File truncated = File.createTempFile("bloomfilter", ".bin");
+		File v1 = File.createTempFile("bloomfilter", ".bin");
+		try {
+			FileOutputStream os = new FileOutputStream(truncated);
+			try {
+				os.write(b, 0, b.length - 8);
+			} finally {
+				os.close();
+			}
+
+			BloomFilter2<String> heap = new BloomFilter2<String>();
+			heap.load(truncated, MapMode.READ_ONLY);
+			assertEquals(filter.getHashFuncCount(), heap.getHashFuncCount());
+
+			try {
+				new BloomFilter2<String>().load(truncated, MapMode.READ_WRITE);
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+
+			// version 1 file shorter than version 2 header
+			os = new FileOutputStream(v1);
+			try {
+				DataOutputStream dos = new DataOutputStream(os);
+				dos.writeInt(64);
+				dos.writeLong(1L);
+			} finally {
+				os.close();
+			}
+			assertEquals(12, v1.length());
+
+			BloomFilter2<String> old = new BloomFilter2<String>();
+			old.load(v1, MapMode.READ_ONLY);
+			assertTrue(old.getBitmap().get(0));
+
+			try {
+				new BloomFilter2<String>().load(v1, MapMode.READ_WRITE);
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+		} finally {
+			truncated.delete();
+			v1.delete();
+		}
+	}
+
+	@Test
+	public void testWordBitmapLayout() throws IOException {
+		Random r = new Random(1);
+		Bitmap bytes = new Bitmap(1000);
+		LongBitmap words = new LongBitmap(1000);
+		for (int i = 0; i < 300; i++) {
+			int index = r.nextInt(1000);
+			bytes.set(index);
+			words.set(index);
+		}
+
+		assertTrue(Arrays.equals(bytes.getBytes().array(), words.getBytes().array()));
+		for (int i = 0; i < words.getWordCount(); i++)
+			assertEquals(bytes.getWord(i), words.getWord(i));
+		for (int i = 0; i < 1000; i++)
+			assertEquals(bytes.get(i), words.get(i));
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		words.writeTo(Channels.newChannel(os));
+		assertTrue(Arrays.equals(bytes.getBytes().array(), os.toByteArray()));
+	}
+
+	@Test
+	public void zeroAllocation() {
+		BloomFilter2<String> filter = new BloomFilter2<String>(0.001, 10000);
+		BloomFilter2<String> filter64 = new BloomFilter2<String>(0.001, 10000, FastHashFunction.Murmur3);
+		String[] keys = new String[10000];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = "key" + i;
+
+		// warm up
+		for (int n = 0; n < 20; n++)
+			for (String key : keys) {
+				filter.add(key);
+				filter.contains(key);
+				filter64.add(key);
+				filter64.contains(key);
+			}
+
+		long before = BloomFilterTest.allocatedBytes();
+		for (int n = 0; n < 10; n++)
+			for (String key : keys) {
+				filter.add(key);
+				filter.contains(key);
+				filter64.add(key);
+				filter64.contains(key);
+			}
+		long allocated = BloomFilterTest.allocatedBytes() - before;
+
+		System.out.println("allocated bytes for 400000 calls: " + allocated);
+		assertTrue(allocated < 4096);
+	}
+
+	@Test
+	public void testBatch() {
+		BloomFilter2<String> single = new BloomFilter2<String>(0.01, 3000);
+		BloomFilter2<String> batch = new BloomFilter2<String>(0.01, 3000);
+		String[] keys = new String[3000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "key" + i;
+			single.add(keys[i]);
+		}
+		batch.addAll(keys);
+		assertTrue(Arrays.equals(single.getBitmap().getBytes().array(), batch.getBitmap().getBytes().array()));
+
+		String[] probes = new String[5000];
+		for (int i = 0; i < probes.length; i++)
+			probes[i] = (i % 2 == 0 ? "key" : "other") + i;
+
+		boolean[] results = new boolean[probes.length];
+		int found = batch.containsAll(probes, results);
+		int expected = 0;
+		for (int i = 0; i < probes.length; i++) {
+			assertEquals(single.contains(probes[i]), results[i]);
+			if (results[i])
+				expected++;
+		}
+		assertEquals(expected, found);
+
+		@SuppressWarnings("unchecked")
+		HashValue<String>[] values = new HashValue[probes.length];
+		for (int i = 0; i < probes.length; i++)
+			values[i] = batch.getHashValue(probes[i]);
+		boolean[] results2 = new boolean[probes.length];
+		assertEquals(found, batch.containsAll(values, results2));
+		assertTrue(Arrays.equals(results, results2));
+	}
+
+	@Test
+	public void testSaturatedSetOperations() {
+		BloomFilter2<String> full = new BloomFilter2<String>(0.01, 10L, FastHashFunction.Murmur3);
+		BloomFilter2<String> half = new BloomFilter2<String>(0.01, 10L, FastHashFunction.Murmur3);
+		BloomFilter2<String> empty = new BloomFilter2<String>(0.01, 10L, FastHashFunction.Murmur3);
+		for (int i = 0; i < 10000; i++)
+			full.add("key" + i);
+		for (int i = 0; i < 5; i++)
+			half.add("key" + i);
+		assertEquals(full.getNumOfBits(), full.getBitCount());
+
+		assertEquals(Double.POSITIVE_INFINITY, full.estimateIntersectionSize(half), 0);
+		assertEquals(Double.POSITIVE_INFINITY, half.estimateIntersectionSize(full), 0);
+		assertEquals(Double.POSITIVE_INFINITY, full.estimateIntersectionSize(full), 0);
+
+		// bit overlap once estimates are unbounded
+		assertEquals(1.0, full.jaccard(full), 0);
+		assertEquals((double) half.getBitCount() / full.getNumOfBits(), full.jaccard(half), 0);
+		assertEquals(0.0, full.jaccard(empty), 0);
+		assertFalse(Double.isNaN(half.jaccard(full)));
+	}
+
+	@Test
+	public void testSetOperations() {
+		// estimates assume well spread bits
+		BloomFilter2<String> hour1 = new BloomFilter2<String>(0.001, 20000L, FastHashFunction.Murmur3);
+		BloomFilter2<String> hour2 = new BloomFilter2<String>(0.001, 20000L, FastHashFunction.Murmur3);
+		BloomFilter2<String> both = new BloomFilter2<String>(0.001, 20000L, FastHashFunction.Murmur3);
+		for (int i = 0; i < 10000; i++) {
+			hour1.add("key" + i);
+			both.add("key" + i);
+		}
+		for (int i = 5000; i < 15000; i++) {
+			hour2.add("key" + i);
+			both.add("key" + i);
+		}
+
+		assertTrue(hour1.isCompatible(hour2));
+		assertEquals(10000, hour1.estimateCount(), 200);
+		assertEquals(5000, hour1.estimateIntersectionSize(hour2), 300);
+		assertEquals(1 / 3.0, hour1.jaccard(hour2), 0.03);
+
+		BloomFilter2<String> day = hour1.copy().union(hour2);
+		for (int i = 0; i < both.getBitmap().getWordCount(); i++)
+			assertEquals(both.getBitmap().getWord(i), day.getBitmap().getWord(i));
+		assertEquals(1.0, day.jaccard(both), 0.0001);
+
+		BloomFilter2<String> common = hour1.copy().intersect(hour2);
+		for (int i = 5000; i < 10000; i++)
+			assertTrue(common.contains("key" + i));
+		assertTrue(common.getBitCount() < hour1.getBitCount());
+
+		// copy is not affected by in place operations
+		assertEquals(10000, hour1.estimateCount(), 200);
+
+		try {
+			hour1.union(new BloomFilter2<String>(0.001, 20000));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void truncatedStream() throws IOException {
+		BloomFilter2<String> filter = new BloomFilter2<String>(0.001, 10000);
+		for (int i = 0; i < 10000; i++)
+			filter.add("key" + i);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		filter.save(os);
+		byte[] b = os.toByteArray();
+
+		// last byte holds lowest 8 bits of the last word only
+		BloomFilter2<String> loaded = new BloomFilter2<String>();
+		loaded.load(new ByteArrayInputStream(Arrays.copyOf(b, b.length - 1)));
+
+		Bitmap expected = filter.getBitmap();
+		Bitmap actual = loaded.getBitmap();
+		int last = expected.getWordCount() - 1;
+		for (int i = 0; i < last; i++)
+			assertEquals(expected.getWord(i), actual.getWord(i));
+		assertEquals(expected.getWord(last) & ~0xffL, actual.getWord(last));
+
+		int missing = 0;
+		for (int i = 0; i < 10000; i++)
+			if (!loaded.contains("key" + i))
+				missing++;
+		assertTrue(missing < 50);
+	}
 }
@@ -0,0 +1,104 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BloomFilterFileMergerTest {
+	@Test
+	public void merge() throws IOException {
+		List<File> files = new ArrayList<File>();
+		BloomFilter2<String> expected = new BloomFilter2<String>(0.001, 50000);
+		try {
+			for (int n = 0; n < 5; n++) {
+				BloomFilter2<String> filter = new BloomFilter2<String>(0.001, 50000);
+				for (int i = n * 10000; i < (n + 1) * 10000; i++) {
+					filter.add("key" + i);
+					expected.add("key" + i);
+				}
+				files.add(save(filter));
+			}
+
+			// small chunks to cross chunk boundaries
+			File merged = File.createTempFile("merged", ".bf");
+			files.add(merged);
+			long wrote = new BloomFilterFileMerger(1024).merge(files.subList(0, 5), merged);
+			assertEquals(expected.streamLength(), wrote);
+			assertEquals(wrote, merged.length());
+
+			BloomFilter2<String> loaded = load(merged);
+			for (int i = 0; i < expected.getBitmap().getWordCount(); i++)
+				assertEquals(expected.getBitmap().getWord(i), loaded.getBitmap().getWord(i));
+			for (int i = 0; i < 50000; i++)
+				assertTrue(loaded.contains("key" + i));
+
+			// single input is copied as is
+			File copied = File.createTempFile("copied", ".bf");
+			files.add(copied);
+			assertEquals(merged.length(), new BloomFilterFileMerger().merge(Arrays.asList(merged), copied));
+			BloomFilter2<String> copy = load(copied);
+			for (int i = 0; i < expected.getBitmap().getWordCount(); i++)
+				assertEquals(expected.getBitmap().getWord(i), copy.getBitmap().getWord(i));
+
+			files.add(save(new BloomFilter2<String>(0.001, 10000)));
+			try {
+				new BloomFilterFileMerger().merge(Arrays.asList(files.get(0), files.get(files.size() - 1)), copied);
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+
+			// failed merge keeps target and leaves no temporary file
+			assertEquals(merged.length(), copied.length());
+			final String prefix = copied.getName() + ".merge";
+			assertEquals(0, copied.getParentFile().list(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.startsWith(prefix);
+				}
+			}).length);
+
+			// merge second file into first in place
+			File target = files.get(0);
+			new BloomFilterFileMerger().merge(Arrays.asList(target, files.get(1)), target);
+			BloomFilter2<String> inPlace = load(target);
+			for (int i = 0; i < 20000; i++)
+				assertTrue(inPlace.contains("key" + i));
+		} finally {
+			for (File f : files)
+				f.delete();
+		}
+	}
+
+	private File save(BloomFilter2<String> filter) throws IOException {
+		File f = File.createTempFile("bloomfilter", ".bf");
+		FileOutputStream os = new FileOutputStream(f);
+		try {
+			filter.save(os);
+		} finally {
+			os.close();
+		}
+		return f;
+	}
+
+	private BloomFilter2<String> load(File f) throws IOException {
+		BloomFilter2<String> filter = new BloomFilter2<String>();
+		FileInputStream is = new FileInputStream(f);
+		try {
+			filter.load(is);
+		} finally {
+			is.close();
+		}
+		return filter;
+	}
+}
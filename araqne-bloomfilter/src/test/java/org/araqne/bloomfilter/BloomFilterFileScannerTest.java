@@ -0,0 +1,77 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class BloomFilterFileScannerTest {
+	@Test
+	public void scan() throws IOException {
+		List<File> files = new ArrayList<File>();
+		List<BloomFilter2<String>> filters = new ArrayList<BloomFilter2<String>>();
+		try {
+			for (int n = 0; n < 40; n++) {
+				// different sizes per file
+				BloomFilter2<String> filter = new BloomFilter2<String>(0.001, 1000 + n * 100);
+				for (int i = 0; i < 1000; i++)
+					filter.add("f" + n + "-" + i);
+				filters.add(filter);
+
+				File f = File.createTempFile("bloomfilter", ".bf");
+				files.add(f);
+				FileOutputStream os = new FileOutputStream(f);
+				try {
+					filter.save(os);
+				} finally {
+					os.close();
+				}
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(4);
+			BloomFilterFileScanner<String> scanner = new BloomFilterFileScanner<String>(
+					GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1], pool);
+
+			List<String> keys = Arrays.asList("f3-10", "f17-999", "f39-0", "nothing");
+			Set<File> matches = new HashSet<File>(scanner.scan(files, keys));
+
+			// caller owns the pool
+			scanner.close();
+			assertFalse(pool.isShutdown());
+			pool.shutdown();
+
+			BloomFilterFileScanner<String> defaultScanner = new BloomFilterFileScanner<String>();
+			try {
+				assertEquals(matches, new HashSet<File>(defaultScanner.scan(files, keys)));
+			} finally {
+				defaultScanner.close();
+			}
+			assertTrue(defaultScanner.getPool().isShutdown());
+
+			for (int n = 0; n < filters.size(); n++) {
+				boolean expected = false;
+				for (String key : keys)
+					expected |= filters.get(n).contains(key);
+				assertEquals(expected, matches.contains(files.get(n)));
+			}
+			assertTrue(matches.contains(files.get(3)));
+			assertTrue(matches.contains(files.get(17)));
+			assertTrue(matches.contains(files.get(39)));
+			assertTrue(matches.size() < 10);
+		} finally {
+			for (File f : files)
+				f.delete();
+		}
+	}
+}
@@ -1,12 +1,17 @@
 package org.araqne.bloomfilter;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
@@ -110,6 +115,48 @@ public class BloomFilterTest {
 		assertTrue(nbf1.getBitmap().equals(nbf2.getBitmap()));
 	}
 
+	@Test
+	public void zeroAllocation() {
+		BloomFilter<String> filter = new BloomFilter<String>(0.001, 10000);
+		String[] keys = new String[10000];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = "key" + i;
+
+		// warm up
+		for (int n = 0; n < 20; n++)
+			for (String key : keys) {
+				filter.add(key);
+				filter.contains(key);
+			}
+
+		long before = allocatedBytes();
+		for (int n = 0; n < 10; n++)
+			for (String key : keys) {
+				filter.add(key);
+				filter.contains(key);
+			}
+		long allocated = allocatedBytes() - before;
+
+		System.out.println("allocated bytes for 200000 calls: " + allocated);
+		assertTrue(allocated < 4096);
+	}
+
+	/**
+	 * returns -1 if current jvm does not support allocation counter, so that
+	 * assertion is not enforced
+	 */
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+		if (!sunBean.isThreadAllocatedMemorySupported())
+			return -1;
+		sunBean.setThreadAllocatedMemoryEnabled(true);
+		return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
 	public abstract static class VMIDGen {
 		static String next() {
 			return new java.rmi.dgc.VMID().toString();
@@ -122,6 +169,53 @@ public class BloomFilterTest {
 		}
 	}
 
+	@Test
+	public void channelIO() throws IOException {
+		BloomFilter<String> filter = new BloomFilter<String>(0.001, 100000);
+		for (int i = 0; i < 100000; i++)
+			filter.add("key" + i);
+
+		ByteArrayOutputStream os1 = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os1, true));
+		ByteArrayOutputStream os2 = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(Channels.newChannel(os2)));
+		assertTrue(Arrays.equals(os1.toByteArray(), os2.toByteArray()));
+		assertEquals(filter.streamLength(), filter.streamLength(true));
+
+		File f = File.createTempFile("bloomfilter", ".bf");
+		try {
+			assertEquals(filter.streamLength(), filter.save(f));
+			assertEquals(filter.streamLength(), f.length());
+
+			BloomFilter<String> loaded = new BloomFilter<String>();
+			loaded.load(f);
+			assertEquals(filter.getBitmap(), loaded.getBitmap());
+			assertEquals(filter.getHashFuncCount(), loaded.getHashFuncCount());
+		} finally {
+			f.delete();
+		}
+
+		// exact lengths leave following data in stream
+		os1.write(os1.toByteArray());
+		ByteArrayInputStream is = new ByteArrayInputStream(os1.toByteArray());
+		for (int i = 0; i < 2; i++) {
+			BloomFilter<String> loaded = new BloomFilter<String>();
+			loaded.load(is);
+			assertEquals(filter.getBitmap(), loaded.getBitmap());
+		}
+		assertEquals(0, is.available());
+
+		// thread local buffer still holds previous header
+		byte[][] shortStreams = { new byte[0], new byte[] { -1, -1, -1, -2, 0, 0 } };
+		for (byte[] b : shortStreams) {
+			try {
+				new BloomFilter<String>().load(new ByteArrayInputStream(b));
+				fail();
+			} catch (EOFException e) {
+			}
+		}
+	}
+
 	@Test
 	public void saveAndLoadBackwardCompatTest() throws IOException {
 		BloomFilter<String> f = new BloomFilter<String>(0.1, 30000);
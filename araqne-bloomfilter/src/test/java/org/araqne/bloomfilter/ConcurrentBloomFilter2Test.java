@@ -0,0 +1,167 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class ConcurrentBloomFilter2Test {
+	@Test
+	public void concurrentAdd() throws InterruptedException {
+		final ConcurrentBloomFilter2<String> filter = new ConcurrentBloomFilter2<String>(0.001, 80000);
+		final int perThread = 10000;
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int base = t * perThread;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++)
+						filter.add("key" + (base + i));
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread t : threads)
+			t.join();
+
+		for (int i = 0; i < threads.length * perThread; i++)
+			assertTrue(filter.contains("key" + i));
+	}
+
+	@Test
+	public void sameStreamAsBloomFilter2() throws IOException {
+		BloomFilter2<String> filter1 = new BloomFilter2<String>(0.01, 1000);
+		ConcurrentBloomFilter2<String> filter2 = new ConcurrentBloomFilter2<String>(0.01, 1000);
+		for (int i = 0; i < 1000; i++) {
+			filter1.add("token" + i);
+			filter2.add("token" + i);
+		}
+
+		ByteArrayOutputStream os1 = new ByteArrayOutputStream();
+		filter1.save(os1);
+		ByteArrayOutputStream os2 = new ByteArrayOutputStream();
+		filter2.save(os2);
+		assertTrue(Arrays.equals(os1.toByteArray(), os2.toByteArray()));
+		assertTrue(filter1.streamLength() == filter2.streamLength());
+
+		ConcurrentBloomFilter2<String> loaded = new ConcurrentBloomFilter2<String>();
+		loaded.load(new ByteArrayInputStream(os1.toByteArray()));
+		assertTrue(loaded.getHashFuncCount() == filter1.getHashFuncCount());
+		for (int i = 0; i < 1000; i++)
+			assertTrue(loaded.contains("token" + i));
+
+		BloomFilter2<String> loaded2 = new BloomFilter2<String>();
+		loaded2.load(new ByteArrayInputStream(os2.toByteArray()));
+		for (int i = 0; i < 1000; i++)
+			assertTrue(loaded2.contains("token" + i));
+	}
+
+	@Test
+	public void snapshotWhileAdding() throws Exception {
+		final ConcurrentBloomFilter2<String> filter = new ConcurrentBloomFilter2<String>(0.001, 400000);
+		final int perThread = 50000;
+		final AtomicIntegerArray done = new AtomicIntegerArray(4);
+		Thread[] threads = new Thread[done.length()];
+		for (int t = 0; t < threads.length; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						filter.add("key" + (id * perThread + i));
+						done.set(id, i + 1);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		while (done.get(0) < perThread / 4)
+			Thread.yield();
+
+		int[] before = new int[threads.length];
+		for (int t = 0; t < threads.length; t++)
+			before[t] = done.get(t);
+
+		ConcurrentBloomFilter2.Snapshot<String> snapshot = filter.snapshot();
+		int[] after = new int[threads.length];
+		for (int t = 0; t < threads.length; t++)
+			after[t] = done.get(t);
+
+		try {
+			filter.snapshot();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		long wrote = snapshot.save(os);
+		BloomFilter2<String> image = snapshot.toBloomFilter2();
+		snapshot.close();
+		assertEquals(snapshot.streamLength(), wrote);
+		assertEquals(wrote, os.size());
+
+		for (Thread t : threads)
+			t.join();
+
+		BloomFilter2<String> loaded = new BloomFilter2<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+
+		int leaked = 0;
+		int later = 0;
+		for (int t = 0; t < threads.length; t++) {
+			for (int i = 0; i < before[t]; i++) {
+				assertTrue(image.contains("key" + (t * perThread + i)));
+				assertTrue(loaded.contains("key" + (t * perThread + i)));
+			}
+
+			// keys added after snapshot() returned are not in the image
+			for (int i = after[t] + 1; i < perThread; i++) {
+				later++;
+				if (image.contains("key" + (t * perThread + i)))
+					leaked++;
+			}
+		}
+
+		assertTrue(later > 0);
+		assertTrue(leaked < later * 0.01);
+
+		for (int i = 0; i < threads.length * perThread; i++)
+			assertTrue(filter.contains("key" + i));
+	}
+
+	@Test
+	public void snapshotOfIdleFilter() throws IOException {
+		ConcurrentBloomFilter2<String> filter = new ConcurrentBloomFilter2<String>(0.01, 100000);
+		for (int i = 0; i < 1000; i++)
+			filter.add("token" + i);
+
+		ByteArrayOutputStream os1 = new ByteArrayOutputStream();
+		filter.save(os1);
+
+		ConcurrentBloomFilter2.Snapshot<String> snapshot = filter.snapshot();
+		ByteArrayOutputStream os2 = new ByteArrayOutputStream();
+		snapshot.save(os2);
+		snapshot.close();
+		assertTrue(Arrays.equals(os1.toByteArray(), os2.toByteArray()));
+
+		try {
+			snapshot.save(new ByteArrayOutputStream());
+			fail();
+		} catch (IllegalStateException e) {
+		}
+
+		// writers do not copy pages after close, and next snapshot can be taken
+		filter.add("token1000");
+		filter.snapshot().close();
+	}
+}
@@ -0,0 +1,71 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CountingBloomFilterTest {
+	@Test
+	public void addAndRemove() {
+		CountingBloomFilter<String> filter = new CountingBloomFilter<String>(0.001, 10000);
+		for (int i = 0; i < 10000; i++)
+			filter.add("key" + i);
+
+		for (int i = 0; i < 5000; i++)
+			assertTrue(filter.remove("key" + i));
+
+		for (int i = 5000; i < 10000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 5000; i++)
+			if (filter.contains("key" + i))
+				count++;
+		assertTrue(count < 20);
+
+		assertFalse(filter.remove("never added"));
+	}
+
+	@Test
+	public void saturation() {
+		CountingBloomFilter<String> filter = new CountingBloomFilter<String>(0.01, 100);
+		for (int i = 0; i < 20; i++)
+			filter.add("dup");
+		assertTrue(filter.getSaturatedCount() > 0);
+
+		for (int i = 0; i < 20; i++)
+			filter.remove("dup");
+
+		// saturated counters keep the key
+		assertTrue(filter.contains("dup"));
+	}
+
+	@Test
+	public void exportAndSave() throws IOException {
+		CountingBloomFilter<String> filter = new CountingBloomFilter<String>(0.01, 1000);
+		BloomFilter2<String> plain = new BloomFilter2<String>(0.01, 1000);
+		for (int i = 0; i < 1000; i++) {
+			filter.add("token" + i);
+			plain.add("token" + i);
+		}
+
+		BloomFilter2<String> exported = filter.toBloomFilter2();
+		assertTrue(Arrays.equals(plain.getBitmap().getBytes().array(), exported.getBitmap().getBytes().array()));
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os));
+
+		CountingBloomFilter<String> loaded = new CountingBloomFilter<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		for (int i = 0; i < 1000; i++)
+			assertTrue(loaded.contains("token" + i));
+		assertTrue(loaded.remove("token1"));
+	}
+}
@@ -0,0 +1,91 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class CuckooFilterTest {
+	@Test
+	public void addAndRemove() throws IOException {
+		CuckooFilter<String> filter = new CuckooFilter<String>(0.001, 100000);
+		assertEquals(13, filter.getFingerprintBits());
+		for (int i = 0; i < 100000; i++)
+			assertTrue(filter.add("key" + i));
+
+		for (int i = 0; i < 100000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 100000; i++)
+			if (filter.contains("other" + i))
+				count++;
+
+		System.out.printf("cuckoo false positive count: %d, rate : %f, load factor: %f\n", count, count / 100000D,
+				filter.getLoadFactor());
+		assertTrue(count < 100);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os));
+
+		CuckooFilter<String> loaded = new CuckooFilter<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(filter.getCount(), loaded.getCount());
+		assertEquals(filter.getNumOfBuckets(), loaded.getNumOfBuckets());
+		for (int i = 0; i < 100000; i++)
+			assertTrue(loaded.contains("key" + i));
+
+		for (int i = 0; i < 50000; i++)
+			assertTrue(loaded.remove("key" + i));
+		assertEquals(50000, loaded.getCount());
+		for (int i = 50000; i < 100000; i++)
+			assertTrue(loaded.contains("key" + i));
+
+		count = 0;
+		for (int i = 0; i < 50000; i++)
+			if (loaded.contains("key" + i))
+				count++;
+		assertTrue(count < 100);
+	}
+
+	@Test
+	public void full() {
+		CuckooFilter<String> filter = new CuckooFilter<String>(0.05, 1000);
+		assertEquals(8, filter.getFingerprintBits());
+
+		int added = 0;
+		while (filter.add("key" + added))
+			added++;
+
+		// failed key is kept in victim slot
+		added++;
+		assertTrue(filter.isFull());
+		assertFalse(filter.add("more"));
+		assertTrue(filter.getLoadFactor() > 0.9);
+		for (int i = 0; i < added; i++)
+			assertTrue(filter.contains("key" + i));
+
+		assertTrue(filter.remove("key0"));
+		assertEquals(added - 1, filter.getCount());
+		for (int i = 1; i < added; i++)
+			assertTrue(filter.contains("key" + i));
+	}
+
+	@Test
+	public void smallerThanBloomFilter() {
+		int capacity = 100000;
+		CuckooFilter<String> filter = new CuckooFilter<String>(0.001, capacity);
+		for (int i = 0; i < capacity; i++)
+			assertTrue(filter.add("key" + i));
+
+		BloomFilter2<String> bloom = new BloomFilter2<String>(0.001, capacity);
+		double bloomBitsPerKey = (double) bloom.getNumOfBits() / capacity;
+		System.out.printf("cuckoo bits per key: %f, bloom filter: %f\n", filter.getBitsPerKey(), bloomBitsPerKey);
+		assertTrue(filter.getBitsPerKey() < bloomBitsPerKey);
+	}
+}
@@ -0,0 +1,54 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class FastHashFunctionTest {
+	private static final Charset UTF8 = Charset.forName("utf-8");
+	private static final Charset UTF16LE = Charset.forName("utf-16le");
+
+	@Test
+	public void knownValues() {
+		assertEquals(0L, FastHashFunction.Murmur3Bytes.hashCode64(new byte[0]));
+		assertEquals(0xcbd8a7b341bd9b02L, FastHashFunction.Murmur3Bytes.hashCode64("hello".getBytes(UTF8)));
+		assertEquals(0xe34bbc7bbc071b6cL,
+				FastHashFunction.Murmur3Bytes.hashCode64("The quick brown fox jumps over the lazy dog".getBytes(UTF8)));
+
+		assertEquals(0xef46db3751d8e999L, FastHashFunction.XXHash64Bytes.hashCode64(new byte[0]));
+		assertEquals(0x44bc2cf5ad770999L, FastHashFunction.XXHash64Bytes.hashCode64("abc".getBytes(UTF8)));
+	}
+
+	@Test
+	public void stringEqualsUtf16Bytes() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 80; i++) {
+			String s = sb.toString();
+			byte[] b = s.getBytes(UTF16LE);
+			assertEquals(FastHashFunction.Murmur3Bytes.hashCode64(b), FastHashFunction.Murmur3.hashCode64(s));
+			assertEquals(FastHashFunction.XXHash64Bytes.hashCode64(b), FastHashFunction.XXHash64.hashCode64(s));
+			sb.append((char) ('a' + i % 26 + (i % 7 == 0 ? 0xac00 : 0)));
+		}
+	}
+
+	@Test
+	public void falsePositiveRate() {
+		BloomFilter2<String> filter = new BloomFilter2<String>(0.001, 50000, FastHashFunction.Murmur3);
+		for (int i = 0; i < 50000; i++)
+			filter.add("key" + i);
+
+		for (int i = 0; i < 50000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 100000; i++)
+			if (filter.contains("other" + i))
+				count++;
+
+		System.out.printf("murmur3 false positive count: %d, rate : %f\n", count, count / 100000D);
+		assertTrue(count < 200);
+	}
+}
@@ -0,0 +1,59 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class InstrumentedBloomFilterTest {
+	@Test
+	public void stats() throws JMException {
+		InstrumentedBloomFilter2<String> filter = new InstrumentedBloomFilter2<String>(new BloomFilter2<String>(0.001,
+				100000L, FastHashFunction.Murmur3));
+		for (int i = 0; i < 50000; i++)
+			filter.add("key" + i);
+		for (int i = 0; i < 20000; i++)
+			filter.contains("key" + i);
+		for (int i = 0; i < 20000; i++)
+			filter.contains("other" + i);
+
+		assertEquals(50000, filter.getAddCount());
+		assertEquals(40000, filter.getQueryCount());
+		assertEquals(0.5, filter.getPositiveRatio(), 0.01);
+		assertEquals(50000, filter.getEstimatedCardinality(), 1000);
+		assertTrue(filter.getFillRatio() > 0.2 && filter.getFillRatio() < 0.4);
+
+		// half of capacity gives much lower rate than target
+		assertTrue(filter.getEstimatedFalsePositiveRate() < 0.0001);
+
+		ObjectName name = filter.register("org.araqne.bloomfilter:type=BloomFilter2,name=test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(50000L, server.getAttribute(name, "AddCount"));
+			assertEquals(filter.getFillRatio(), (Double) server.getAttribute(name, "FillRatio"), 0.0000001);
+			server.invoke(name, "resetCounters", null, null);
+			assertEquals(0, filter.getQueryCount());
+		} finally {
+			filter.unregister(name);
+		}
+	}
+
+	@Test
+	public void legacy() {
+		InstrumentedBloomFilter<String> filter = new InstrumentedBloomFilter<String>(new BloomFilter<String>(0.001,
+				10000));
+		for (int i = 0; i < 5000; i++)
+			filter.add("key" + i);
+
+		assertTrue(filter.contains("key0"));
+		assertEquals(1, filter.getPositiveCount());
+		assertEquals(filter.getFilter().getBitmap().cardinality(), filter.getBitCount());
+		assertTrue(filter.getEstimatedCardinality() > 4000);
+	}
+}
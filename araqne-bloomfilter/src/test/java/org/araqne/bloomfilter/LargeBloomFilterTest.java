@@ -0,0 +1,71 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LargeBloomFilterTest {
+	@Test
+	public void sizing() {
+		// 2 billion keys do not fit in int-indexed filter
+		LargeBloomFilter.OptimumFinder opt = new LargeBloomFilter.OptimumFinder(0.001, 2000000000L);
+		assertTrue(opt.numOfBits > Integer.MAX_VALUE);
+		assertEquals(10, opt.numOfHashFunction);
+	}
+
+	@Test
+	public void segmented() throws IOException {
+		// 16 words per segment to cross many segment boundaries
+		LargeBloomFilter<String> filter = new LargeBloomFilter<String>(0.001, 20000, FastHashFunction.Murmur3, 4);
+		for (int i = 0; i < 20000; i++)
+			filter.add("key" + i);
+
+		for (int i = 0; i < 20000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 100000; i++)
+			if (filter.contains("other" + i))
+				count++;
+
+		System.out.printf("large false positive count: %d, rate : %f\n", count, count / 100000D);
+		assertTrue(count < 200);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os));
+
+		LargeBloomFilter<String> loaded = new LargeBloomFilter<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(filter.getNumOfBits(), loaded.getNumOfBits());
+		assertEquals(filter.getHashFuncCount(), loaded.getHashFuncCount());
+		for (long i = 0; i < filter.getBitmap().getWordCount(); i++)
+			assertEquals(filter.getBitmap().getWord(i), loaded.getBitmap().getWord(i));
+		for (int i = 0; i < 20000; i++)
+			assertTrue(loaded.contains("key" + i));
+	}
+
+	@Test
+	public void truncatedStream() throws IOException {
+		LargeBloomFilter<String> filter = new LargeBloomFilter<String>(0.001, 20000, FastHashFunction.Murmur3, 4);
+		for (int i = 0; i < 20000; i++)
+			filter.add("key" + i);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		filter.save(os);
+		byte[] b = os.toByteArray();
+
+		LargeBloomFilter<String> loaded = new LargeBloomFilter<String>();
+		loaded.load(new ByteArrayInputStream(Arrays.copyOf(b, b.length - 3)));
+
+		long last = filter.getBitmap().getWordCount() - 1;
+		for (long i = 0; i < last; i++)
+			assertEquals(filter.getBitmap().getWord(i), loaded.getBitmap().getWord(i));
+		assertEquals(filter.getBitmap().getWord(last) & ~0xffffffL, loaded.getBitmap().getWord(last));
+	}
+}
@@ -0,0 +1,90 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LongBloomFilterTest {
+	@Test
+	public void containsAndFalsePositive() {
+		LongBloomFilter filter = new LongBloomFilter(0.001, 100000);
+		for (long i = 0; i < 100000; i++)
+			filter.add(i * 7919);
+
+		for (long i = 0; i < 100000; i++)
+			assertTrue(filter.contains(i * 7919));
+
+		int count = 0;
+		for (long i = 0; i < 100000; i++)
+			if (filter.contains(i * 7919 + 1))
+				count++;
+
+		System.out.printf("long false positive count: %d, rate : %f\n", count, count / 100000D);
+		assertTrue(count < 200);
+	}
+
+	@Test
+	public void intKeys() {
+		IntBloomFilter filter = new IntBloomFilter(0.001, 1000);
+		// 10.0.0.0/22
+		for (int ip = 0x0a000000; ip < 0x0a000400; ip++)
+			filter.add(ip);
+
+		for (int ip = 0x0a000000; ip < 0x0a000400; ip++)
+			assertTrue(filter.contains(ip));
+		assertTrue(filter.contains(0x0a000001L));
+	}
+
+	@Test
+	public void saveAndLoad() throws IOException {
+		LongBloomFilter filter = new LongBloomFilter(0.01, 1000);
+		for (long i = 0; i < 1000; i++)
+			filter.add(i);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os));
+
+		LongBloomFilter loaded = new LongBloomFilter();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(filter.getHashFuncCount(), loaded.getHashFuncCount());
+		for (long i = 0; i < 1000; i++)
+			assertTrue(loaded.contains(i));
+
+		// same version 2 layout
+		BloomFilter2<String> filter2 = new BloomFilter2<String>();
+		filter2.load(new ByteArrayInputStream(os.toByteArray()));
+		assertTrue(Arrays.equals(filter.getBitmap().getBytes().array(), filter2.getBitmap().getBytes().array()));
+	}
+
+	@Test
+	public void degenerateKeys() {
+		// key 0 mixes to 0, and so does the golden ratio key when it is used
+		// as xor seed
+		long[] keys = { 0L, 0x9e3779b97f4a7c15L };
+		for (long key : keys) {
+			LongBloomFilter filter = new LongBloomFilter(0.001, 1000);
+			assertFalse(filter.contains(key));
+
+			// another key set bit 0 only
+			filter.getBitmap().set(0);
+			assertFalse(filter.contains(key));
+
+			filter.getBitmap().getWords()[0] = 0;
+			filter.add(key);
+			assertTrue(filter.contains(key));
+
+			// every probe sets its own bit
+			int bits = 0;
+			for (long word : filter.getBitmap().getWords())
+				bits += Long.bitCount(word);
+			assertEquals(filter.getHashFuncCount(), bits);
+		}
+	}
+}
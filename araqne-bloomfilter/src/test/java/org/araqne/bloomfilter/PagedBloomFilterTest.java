@@ -0,0 +1,96 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class PagedBloomFilterTest {
+	@Test
+	public void paged() throws IOException {
+		BloomFilter2<String> filter = new BloomFilter2<String>(0.001, 100000);
+		for (int i = 0; i < 100000; i++)
+			filter.add("key" + i);
+
+		File f = File.createTempFile("bloomfilter", ".bf");
+		FileOutputStream os = new FileOutputStream(f);
+		try {
+			filter.save(os);
+		} finally {
+			os.close();
+		}
+
+		// 180KB filter with 16 pages of 4KB
+		PageCache cache = new PageCache(4096, 65536);
+		PagedBloomFilter<String> paged = new PagedBloomFilter<String>(f, cache);
+		PagedBloomFilter<String> paged2 = new PagedBloomFilter<String>(f, cache);
+		try {
+			assertEquals(filter.getNumOfBits(), paged.getNumOfBits());
+			assertEquals(0, cache.getPageCount());
+
+			for (int i = 0; i < 100000; i++)
+				assertTrue(paged.contains("key" + i));
+
+			for (int i = 0; i < 100000; i++)
+				assertEquals(filter.contains("other" + i), paged.contains("other" + i));
+
+			assertEquals(16, cache.getPageCount());
+			assertTrue(cache.getMissCount() > 0);
+
+			// hot page stays resident
+			cache.resetCounters();
+			for (int i = 0; i < 1000; i++)
+				paged2.contains("key0");
+			assertTrue(cache.getMissCount() <= filter.getHashFuncCount());
+			assertTrue(cache.getHitCount() >= 999L * filter.getHashFuncCount());
+
+			paged2.close();
+			assertTrue(cache.getPageCount() <= 16);
+		} finally {
+			paged.close();
+			f.delete();
+		}
+		assertEquals(0, cache.getPageCount());
+	}
+
+	@Test
+	public void clockEviction() throws IOException {
+		File f = File.createTempFile("bloomfilter", ".page");
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			for (long i = 0; i < 64; i++)
+				raf.writeLong(i);
+
+			// 8 pages of 64 bytes, room for 4
+			PageCache cache = new PageCache(64, 256);
+			PageCache.Owner owner = cache.register(raf.getChannel(), 0, 512);
+			for (int page = 0; page < 8; page++) {
+				long[] words = cache.getPage(owner, page);
+				assertEquals(page * 8, words[0]);
+				assertSame(words, cache.getPage(owner, page));
+			}
+			assertEquals(4, cache.getPageCount());
+			assertEquals(8, cache.getMissCount());
+			assertEquals(8, cache.getHitCount());
+
+			// pages past payload are zero
+			assertEquals(0, cache.getPage(owner, 100)[0]);
+			assertEquals(4, cache.getPageCount());
+
+			// read for closed owner is not cached
+			cache.invalidate(owner);
+			assertEquals(0, cache.getPageCount());
+			assertEquals(8, cache.getPage(owner, 1)[0]);
+			assertEquals(0, cache.getPageCount());
+		} finally {
+			raf.close();
+			f.delete();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ParallelBloomFilterBuilderTest {
+	@Test
+	public void sameBits() {
+		String[] keys = new String[500000];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = "key" + i;
+
+		BloomFilter2<String> serial = new BloomFilter2<String>(0.001, keys.length);
+		for (String key : keys)
+			serial.add(key);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ParallelBloomFilterBuilder builder = new ParallelBloomFilterBuilder(pool);
+		BloomFilter2<String> parallel = new BloomFilter2<String>(0.001, keys.length);
+		builder.addAll(parallel, keys);
+
+		ConcurrentBloomFilter2<String> concurrent = new ConcurrentBloomFilter2<String>(0.001, keys.length);
+		builder.addAll(concurrent, keys);
+
+		// caller owns the pool
+		builder.close();
+		assertFalse(pool.isShutdown());
+		pool.shutdown();
+
+		Bitmap expected = serial.getBitmap();
+		for (int i = 0; i < expected.getWordCount(); i++) {
+			assertEquals(expected.getWord(i), parallel.getBitmap().getWord(i));
+			assertEquals(expected.getWord(i), concurrent.getBitmap().getWord(i));
+		}
+
+		for (String key : keys)
+			assertTrue(parallel.contains(key));
+	}
+
+	@Test
+	public void sequentialList() {
+		List<String> keys = new LinkedList<String>();
+		for (int i = 0; i < 200000; i++)
+			keys.add("key" + i);
+
+		BloomFilter2<String> filter = new BloomFilter2<String>(0.001, keys.size());
+		ParallelBloomFilterBuilder builder = new ParallelBloomFilterBuilder();
+		try {
+			builder.addAll(filter, keys);
+		} finally {
+			builder.close();
+		}
+		assertTrue(builder.getPool().isShutdown());
+
+		for (String key : keys)
+			assertTrue(filter.contains(key));
+	}
+}
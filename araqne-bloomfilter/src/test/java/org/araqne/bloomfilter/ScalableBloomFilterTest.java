@@ -0,0 +1,123 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ScalableBloomFilterTest {
+	@Test
+	public void growth() throws IOException {
+		ScalableBloomFilter<String> filter = new ScalableBloomFilter<String>(0.001, 1000);
+		for (int i = 0; i < 50000; i++)
+			filter.add("key" + i);
+
+		// 1000 + 2000 + ... + 32000 >= 50000
+		assertEquals(6, filter.getStageCount());
+		assertTrue(filter.getErrorRateBound() <= 0.001);
+
+		for (int i = 0; i < 50000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 100000; i++)
+			if (filter.contains("other" + i))
+				count++;
+
+		System.out.printf("scalable false positive count: %d, rate : %f\n", count, count / 100000D);
+		assertTrue(count < 200);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os));
+		assertEquals(filter.streamLength(), os.size());
+
+		ScalableBloomFilter<String> loaded = new ScalableBloomFilter<String>(0.001, 1000);
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(filter.getStageCount(), loaded.getStageCount());
+		assertEquals(filter.getCount(), loaded.getCount());
+		for (int i = 0; i < 50000; i++)
+			assertTrue(loaded.contains("key" + i));
+
+		// keeps growing after load
+		for (int i = 50000; i < 70000; i++)
+			loaded.add("key" + i);
+		assertEquals(7, loaded.getStageCount());
+	}
+
+	@Test
+	public void duplicates() {
+		ScalableBloomFilter<String> filter = new ScalableBloomFilter<String>(0.001, 1000);
+		for (int j = 0; j < 10; j++)
+			for (int i = 0; i < 1000; i++)
+				filter.add("key" + i);
+
+		assertEquals(1, filter.getStageCount());
+		assertTrue(filter.getCount() <= 1000);
+	}
+
+	@Test
+	public void stageErrorRates() throws IOException {
+		// stages above 2^20 bits switch to LargeBloomFilter
+		@SuppressWarnings("unchecked")
+		ScalableBloomFilter<String> filter = new ScalableBloomFilter<String>(0.001, 10000, 2, 0.8,
+				GeneralHashFunction.stringHashFunctions[2], GeneralHashFunction.stringHashFunctions[1], 1 << 20);
+		for (int i = 0; i < 200000; i++)
+			filter.add("key" + i);
+
+		assertEquals(5, filter.getStageCount());
+		assertTrue(filter.getStage(0) != null);
+		assertTrue(filter.getLargeStage(4) != null);
+
+		for (int i = 0; i < filter.getStageCount(); i++) {
+			double m = filter.getStageNumOfBits(i);
+			int k = filter.getStageHashFuncCount(i);
+			double n = filter.getStageCapacity(i);
+			double rate = Math.pow(1 - Math.exp(-k * n / m), k);
+			assertTrue(k > 1);
+			assertTrue("stage " + i + " rate " + rate, rate <= filter.getStageErrorRate(i) * 1.01);
+		}
+
+		for (int i = 0; i < 200000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os));
+
+		ScalableBloomFilter<String> loaded = new ScalableBloomFilter<String>(0.001, 10000);
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(filter.getStageCount(), loaded.getStageCount());
+		assertTrue(loaded.getLargeStage(4) != null);
+		for (int i = 0; i < 200000; i++)
+			assertTrue(loaded.contains("key" + i));
+	}
+
+	@Test
+	public void loadRestoresGrowthParameters() throws IOException {
+		ScalableBloomFilter<String> filter = new ScalableBloomFilter<String>(0.00001, 5000);
+		for (int i = 0; i < 8000; i++)
+			filter.add("key" + i);
+		assertEquals(2, filter.getStageCount());
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(filter.streamLength(), filter.save(os));
+
+		// default instance grows with 0.001 and 100000 unless restored
+		ScalableBloomFilter<String> loaded = new ScalableBloomFilter<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(filter.getErrorRateBound(), loaded.getErrorRateBound(), 0);
+		assertTrue(loaded.getErrorRateBound() <= 0.00001);
+
+		for (int i = 8000; i < 16000; i++)
+			loaded.add("key" + i);
+		assertEquals(3, loaded.getStageCount());
+		assertEquals(20000, loaded.getStageCapacity(2));
+		assertEquals(0.00001 * 0.2 * 0.8 * 0.8, loaded.getStageErrorRate(2), 1e-15);
+		assertTrue(loaded.getErrorRateBound() <= 0.00001);
+		for (int i = 0; i < 16000; i++)
+			assertTrue(loaded.contains("key" + i));
+	}
+}
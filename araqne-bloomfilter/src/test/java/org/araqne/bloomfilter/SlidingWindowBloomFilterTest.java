@@ -0,0 +1,148 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class SlidingWindowBloomFilterTest {
+	@Test
+	public void countWindow() {
+		SlidingWindowBloomFilter<String> filter = new SlidingWindowBloomFilter<String>(0.001, 1000, 4);
+		int duplicates = 0;
+		for (int i = 0; i < 10000; i++)
+			if (!filter.addIfAbsent("key" + i))
+				duplicates++;
+
+		// false positives only
+		assertTrue(duplicates < 20);
+		assertEquals(4, filter.getLiveGenerationCount());
+
+		// last 3 full generations and current one are remembered
+		for (int i = 7100; i < 10000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 5000; i++)
+			if (filter.contains("key" + i))
+				count++;
+
+		System.out.printf("sliding window expired key false positive count: %d, rate : %f\n", count, count / 5000D);
+		assertTrue(count < 10);
+		assertFalse(filter.addIfAbsent("key9999"));
+	}
+
+	@Test
+	public void timeWindow() {
+		final AtomicLong clock = new AtomicLong(1000000);
+		SlidingWindowBloomFilter<String> filter = new SlidingWindowBloomFilter<String>(0.001, 100000, 3, 60000) {
+			@Override
+			protected long currentTimeMillis() {
+				return clock.get();
+			}
+		};
+
+		filter.add("old");
+		clock.addAndGet(60000);
+		filter.add("middle");
+		clock.addAndGet(60000);
+		filter.add("new");
+
+		assertTrue(filter.contains("old"));
+		assertTrue(filter.contains("middle"));
+		assertTrue(filter.contains("new"));
+
+		clock.addAndGet(60000);
+		assertFalse(filter.contains("old"));
+		assertTrue(filter.contains("middle"));
+
+		// idle longer than window drops everything
+		clock.addAndGet(600000);
+		assertFalse(filter.contains("middle"));
+		assertFalse(filter.contains("new"));
+	}
+
+	@Test
+	public void missedPeriods() {
+		final long t0 = 1000000;
+		final AtomicLong clock = new AtomicLong(t0);
+		SlidingWindowBloomFilter<String> filter = new SlidingWindowBloomFilter<String>(0.001, 100000, 4, 60000) {
+			@Override
+			protected long currentTimeMillis() {
+				return clock.get();
+			}
+		};
+
+		clock.set(t0 + 30000);
+		filter.add("a");
+
+		// two missed periods, generations start at t0 + 120000
+		clock.set(t0 + 130000);
+		filter.add("b");
+		assertTrue(filter.getGeneration(2).contains("a"));
+		assertTrue(filter.getGeneration(0).contains("b"));
+
+		// boundary at t0 + 180000, not 60 seconds after last access
+		clock.set(t0 + 185000);
+		assertTrue(filter.contains("b"));
+		assertTrue(filter.getGeneration(1).contains("b"));
+		assertTrue(filter.getGeneration(3).contains("a"));
+
+		clock.set(t0 + 239999);
+		assertTrue(filter.contains("a"));
+		clock.set(t0 + 240000);
+		assertFalse(filter.contains("a"));
+		assertTrue(filter.contains("b"));
+
+		// more periods than generations drop everything, and keep alignment
+		clock.set(t0 + 240000 + 10 * 60000 + 59999);
+		filter.add("c");
+		assertFalse(filter.contains("b"));
+		assertTrue(filter.getGeneration(0).contains("c"));
+		clock.set(t0 + 240000 + 11 * 60000);
+		assertTrue(filter.contains("c"));
+		assertTrue(filter.getGeneration(1).contains("c"));
+	}
+
+	@Test
+	public void countRotationKeepsPeriods() {
+		final long t0 = 1000000;
+		final AtomicLong clock = new AtomicLong(t0);
+		SlidingWindowBloomFilter<String> filter = new SlidingWindowBloomFilter<String>(0.001, 2, 3, 60000) {
+			@Override
+			protected long currentTimeMillis() {
+				return clock.get();
+			}
+		};
+
+		filter.add("a");
+		filter.add("b");
+
+		// third key rotates by count in the middle of first period
+		clock.set(t0 + 10000);
+		filter.add("c");
+		assertTrue(filter.getGeneration(0).contains("c"));
+		assertTrue(filter.getGeneration(1).contains("a"));
+
+		// period still ends at t0 + 60000
+		clock.set(t0 + 60000);
+		assertTrue(filter.contains("c"));
+		assertTrue(filter.getGeneration(1).contains("c"));
+
+		// no extra rotation 60 seconds after the count rotation
+		clock.set(t0 + 70000);
+		filter.add("d");
+		assertTrue(filter.getGeneration(0).contains("d"));
+		assertTrue(filter.getGeneration(1).contains("c"));
+
+		// manual rotation does not move the boundary either
+		filter.rotate();
+		clock.set(t0 + 120000);
+		assertTrue(filter.contains("d"));
+		assertTrue(filter.getGeneration(2).contains("d"));
+		assertFalse(filter.contains("c"));
+	}
+}
@@ -0,0 +1,68 @@
+package org.araqne.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SplitBlockBloomFilterTest {
+	@Test
+	public void containsAndFalsePositive() {
+		SplitBlockBloomFilter<String> filter = new SplitBlockBloomFilter<String>(0.01, 50000);
+		for (int i = 0; i < 50000; i++)
+			filter.add("key" + i);
+
+		for (int i = 0; i < 50000; i++)
+			assertTrue(filter.contains("key" + i));
+
+		int count = 0;
+		for (int i = 0; i < 100000; i++)
+			if (filter.contains("other" + i))
+				count++;
+
+		System.out.printf("split block false positive count: %d, rate : %f\n", count, count / 100000D);
+		assertTrue(count < 1500);
+	}
+
+	@Test
+	public void kernelsAgree() {
+		Random r = new Random(1);
+		long[] swar = new long[64 * 4];
+		long[] scalar = new long[64 * 4];
+		for (int i = 0; i < 2000; i++) {
+			int base = r.nextInt(64) * 4;
+			int key = r.nextInt();
+			SplitBlockBloomFilter.insert(swar, base, key);
+			SplitBlockBloomFilter.insertScalar(scalar, base, key);
+		}
+		assertTrue(Arrays.equals(swar, scalar));
+
+		for (int i = 0; i < 2000; i++) {
+			int base = r.nextInt(64) * 4;
+			int key = r.nextInt();
+			assertEquals(SplitBlockBloomFilter.checkScalar(scalar, base, key), SplitBlockBloomFilter.check(swar, base, key));
+		}
+	}
+
+	@Test
+	public void saveAndLoad() throws IOException {
+		SplitBlockBloomFilter<String> filter = new SplitBlockBloomFilter<String>(0.01, 1000);
+		for (int i = 0; i < 1000; i++)
+			filter.add("token" + i);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		long wrote = filter.save(os);
+		assertEquals(filter.streamLength(), wrote);
+
+		SplitBlockBloomFilter<String> loaded = new SplitBlockBloomFilter<String>();
+		loaded.load(new ByteArrayInputStream(os.toByteArray()));
+		for (int i = 0; i < 1000; i++)
+			assertTrue(loaded.contains("token" + i));
+	}
+}